@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum.benchmarks;
+
+import info.debatty.java.spamsum.BatchHasher;
+import info.debatty.java.spamsum.ParallelHasher;
+import info.debatty.java.spamsum.Signature;
+import info.debatty.java.spamsum.SpamSum;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of SpamSum.hashString for input sizes from 100B to 100MB.
+ * The "repetitive" content forces the original algorithm to divide the
+ * block size several times.
+ *
+ * Run with "-prof gc" to get the allocation rate.
+ *
+ * @author Thibault Debatty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class HashBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000", "10000000",
+        "100000000"})
+    private int size;
+
+    @Param({"random", "repetitive"})
+    private String content;
+
+    private final SpamSum spamsum = new SpamSum();
+    private final ParallelHasher parallel = new ParallelHasher();
+    private final BatchHasher batch = new BatchHasher();
+    private String string;
+    private byte[] bytes;
+
+    /**
+     * Generate the input.
+     */
+    @Setup
+    public final void setup() {
+        bytes = Inputs.generate(content, size, 123456);
+        string = new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Benchmark
+    public final Signature hashString() {
+        return spamsum.hashString(string);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Benchmark
+    public final Signature hashBytes() {
+        return spamsum.hash(bytes);
+    }
+
+    /**
+     * The same SpamSum instance is shared by all threads, to measure
+     * multi-threaded scaling.
+     *
+     * @return
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public final Signature hashBytesAllThreads() {
+        return spamsum.hash(bytes);
+    }
+
+    /**
+     * A single input hashed by all threads of the common ForkJoinPool.
+     *
+     * @return
+     */
+    @Benchmark
+    public final Signature hashBytesParallel() {
+        return parallel.hash(bytes);
+    }
+
+    /**
+     * The two pass hasher used by BatchHasher.
+     *
+     * @return
+     */
+    @Benchmark
+    public final Signature hashBytesBatch() {
+        return batch.hash(bytes);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic inputs for the benchmarks.
+ *
+ * @author Thibault Debatty
+ */
+final class Inputs {
+
+    private Inputs() {
+    }
+
+    /**
+     * Random printable ASCII text.
+     * For such input, the initial guess of the block size is usually
+     * correct.
+     *
+     * @param size
+     * @param seed
+     * @return
+     */
+    static byte[] random(final int size, final long seed) {
+        Random rand = new Random(seed);
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (' ' + rand.nextInt(95));
+        }
+        return bytes;
+    }
+
+    /**
+     * Highly repetitive text, with only a few reset points. For such input,
+     * the original algorithm has to divide the block size several times.
+     *
+     * @param size
+     * @param seed
+     * @return
+     */
+    static byte[] repetitive(final int size, final long seed) {
+        Random rand = new Random(seed);
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            if (i % 100 < 90) {
+                bytes[i] = 'a';
+            } else {
+                bytes[i] = (byte) ('a' + rand.nextInt(26));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Copy of the input, with a few bytes modified.
+     *
+     * @param bytes
+     * @param changes number of modified bytes
+     * @param seed
+     * @return
+     */
+    static byte[] modify(
+            final byte[] bytes, final int changes, final long seed) {
+        Random rand = new Random(seed);
+        byte[] copy = bytes.clone();
+        for (int i = 0; i < changes; i++) {
+            copy[rand.nextInt(copy.length)] = (byte) ('A' + rand.nextInt(26));
+        }
+        return copy;
+    }
+
+    static byte[] generate(
+            final String content, final int size, final long seed) {
+        if ("random".equals(content)) {
+            return random(size, seed);
+        }
+        return repetitive(size, seed);
+    }
+}
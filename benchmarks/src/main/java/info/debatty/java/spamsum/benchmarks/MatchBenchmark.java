@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum.benchmarks;
+
+import info.debatty.java.spamsum.Signature;
+import info.debatty.java.spamsum.SpamSum;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of comparing two signatures, for similar and dissimilar pairs.
+ *
+ * @author Thibault Debatty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchBenchmark {
+
+    private static final int SIZE = 100000;
+
+    @Param({"similar", "dissimilar"})
+    private String pair;
+
+    private final SpamSum spamsum = new SpamSum();
+    private Signature signature1;
+    private Signature signature2;
+    private String string1;
+    private String string2;
+
+    /**
+     * Compute the signatures that will be compared.
+     */
+    @Setup
+    public final void setup() {
+        byte[] bytes1 = Inputs.random(SIZE, 1);
+        byte[] bytes2;
+        if ("similar".equals(pair)) {
+            bytes2 = Inputs.modify(bytes1, 20, 2);
+        } else {
+            bytes2 = Inputs.random(SIZE, 2);
+        }
+
+        signature1 = spamsum.hash(bytes1);
+        signature2 = spamsum.hash(bytes2);
+        string1 = signature1.toString();
+        string2 = signature2.toString();
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Benchmark
+    public final int matchStrings() {
+        return spamsum.match(string1, string2);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Benchmark
+    public final int matchSignatures() {
+        return spamsum.match(signature1, signature2);
+    }
+
+    /**
+     * The same SpamSum instance is shared by all threads, to measure
+     * multi-threaded scaling.
+     *
+     * @return
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public final int matchSignaturesAllThreads() {
+        return spamsum.match(signature1, signature2);
+    }
+}
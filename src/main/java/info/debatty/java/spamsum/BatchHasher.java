@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compute the signatures of a lot of small independent documents (e.g.
+ * messages), faster than hashing them one by one with SpamSum. The
+ * signatures are identical to the ones computed by SpamSum, with an
+ * automatic block size.
+ *
+ * SpamSumHasher does not know the final block size, hence it keeps a sum
+ * hash for every candidate block size, and checks for reset points using
+ * a division. When the whole document is available, it can be hashed in
+ * two passes instead, like ParallelHasher does. The first pass runs the
+ * rolling hash and records the reset points, each one with the highest
+ * level it belongs to (its top level). This is enough to select the block
+ * size. The second pass computes the sum hash of the pieces of the two
+ * block sizes used by the signature only.
+ *
+ * A BatchHasher is thread-safe: each thread reuses its own buffers, hence
+ * hashing does not allocate memory except for the results.
+ *
+ * @author Thibault Debatty
+ */
+public class BatchHasher {
+
+    // the rolling window (last 7 bytes) is stored in a single long
+    private static final long WINDOW_MASK = 0x00FFFFFFFFFFFFFFL;
+    private static final int WINDOW_LAST = 8 * (SpamSum.ROLLING_WINDOW - 1);
+
+    // inverse of MIN_BLOCKSIZE (3) modulo 2^64: for 0 < x <= 2^32, x is a
+    // multiple of 3 iff x * INVERSE < 2^32, in which case it is x / 3
+    private static final long INVERSE = 0xAAAAAAAAAAAAAAABL;
+
+    // number of bytes that are scanned between two checks of the capacity
+    // of the buffers
+    private static final int STRIDE = 4096;
+
+    private static final ThreadLocal<Buffers> BUFFERS =
+            new ThreadLocal<Buffers>() {
+                @Override
+                protected Buffers initialValue() {
+                    return new Buffers();
+                }
+            };
+
+    /**
+     * Computes and returns the spamsum signature of each string, like
+     * SpamSum.hashString(). Strings are encoded using UTF-8.
+     *
+     * @param strings
+     * @return the signatures, in the same order as the strings
+     */
+    public final List<Signature> hash(final List<String> strings) {
+        Buffers buffers = BUFFERS.get();
+        List<Signature> signatures = new ArrayList<Signature>(strings.size());
+        for (String string : strings) {
+            signatures.add(
+                    buffers.hash(string.getBytes(StandardCharsets.UTF_8)));
+        }
+        return signatures;
+    }
+
+    /**
+     * Computes and returns the spamsum signature of each array of bytes,
+     * like SpamSum.hash(byte[]).
+     *
+     * @param documents
+     * @return the signatures, in the same order as the documents
+     */
+    public final Signature[] hash(final byte[][] documents) {
+        Buffers buffers = BUFFERS.get();
+        Signature[] signatures = new Signature[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            signatures[i] = buffers.hash(documents[i]);
+        }
+        return signatures;
+    }
+
+    /**
+     * Computes and returns the spamsum signature of this array of bytes,
+     * like SpamSum.hash(byte[]).
+     *
+     * @param document
+     * @return spamsum signature
+     */
+    public final Signature hash(final byte[] document) {
+        return BUFFERS.get().hash(document);
+    }
+
+    /**
+     * The buffers used by a thread.
+     */
+    private static final class Buffers {
+
+        // reset points of the current document, in order, with their top
+        // level
+        private int[] positions = new int[STRIDE];
+        private byte[] tops = new byte[STRIDE];
+        private int count;
+
+        // value of the rolling hash after the last byte
+        private int rolling;
+
+        private final int[] totals = new int[SpamSumHasher.MAX_LEVELS];
+        private final char[] left = new char[SpamSum.SPAMSUM_LENGTH];
+        private final char[] right = new char[SpamSum.SPAMSUM_LENGTH / 2];
+
+        Signature hash(final byte[] document) {
+            long start = SpamSum.start();
+            scan(document);
+            Signature signature = digest(document);
+            SpamSum.hashed(
+                    document.length,
+                    signature,
+                    SpamSumHasher.halvings(
+                            document.length, signature.getBlockSize()),
+                    start);
+            return signature;
+        }
+
+        /**
+         * First pass: find the reset points.
+         */
+        private void scan(final byte[] document) {
+            long window = 0;
+            int h1 = 0;
+            int h2 = 0;
+            int h3 = 0;
+            int h = 0;
+            int found = 0;
+
+            for (int stride = 0; stride < document.length; stride += STRIDE) {
+                if (found + STRIDE > positions.length) {
+                    int capacity = Math.max(found + STRIDE, 2 * found);
+                    positions = Arrays.copyOf(positions, capacity);
+                    tops = Arrays.copyOf(tops, capacity);
+                }
+
+                int end = Math.min(document.length, stride + STRIDE);
+                for (int p = stride; p < end; p++) {
+                    int c = document[p] & 0xFF;
+
+                    int out = (int) (window >>> WINDOW_LAST) & 0xFF;
+                    window = ((window << 8) | c) & WINDOW_MASK;
+                    h2 += SpamSum.ROLLING_WINDOW * c - h1;
+                    h1 += c - out;
+                    h3 = (h3 << 5) ^ c;
+                    h = h1 + h2 + h3;
+
+                    // rolling % (3 << i) == (3 << i) - 1 iff rolling + 1 is
+                    // a multiple of 3 and of 2^i.
+                    // Reset points are unpredictable, hence the position of
+                    // every byte is written, but it is kept (by incrementing
+                    // found) only if the byte is a reset point
+                    long quotient = ((h & 0xFFFFFFFFL) + 1) * INVERSE;
+                    positions[found] = p;
+                    tops[found] = (byte) Long.numberOfTrailingZeros(quotient);
+                    found += (int) (((quotient >>> 32) - 1) >>> 63);
+                }
+            }
+
+            count = found;
+            rolling = h;
+        }
+
+        /**
+         * Second pass: select the block size, and compute the sum hash of
+         * the pieces. Same rules as SpamSumHasher.digest().
+         */
+        private Signature digest(final byte[] document) {
+
+            // same levels as SpamSumHasher, when the length is known
+            int guess = SpamSumHasher.guessLevel(document.length);
+            int max_level = Math.min(guess + 1, SpamSumHasher.MAX_LEVELS - 1);
+
+            // number of reset points of each level
+            Arrays.fill(totals, 0, max_level + 1, 0);
+            for (int k = 0; k < count; k++) {
+                totals[Math.min(tops[k], max_level)]++;
+            }
+            for (int i = max_level - 1; i >= 0; i--) {
+                totals[i] += totals[i + 1];
+            }
+
+            // Levels above last never hit a reset point, and level last
+            // has not hit one either, unless last == max_level
+            int last = 0;
+            while (last < max_level && totals[last] > 0) {
+                last++;
+            }
+
+            int level = Math.min(guess, last);
+            while (level > 0
+                    && Math.min(totals[level], SpamSumHasher.LEFT_CAP)
+                        < SpamSum.SPAMSUM_LENGTH / 2) {
+                level--;
+            }
+            boolean tail = rolling != 0;
+
+            // The right part uses the reset points of level + 1, which are
+            // a subset of the reset points of level. Once the cap is
+            // reached, the sum hash is not reset anymore, and only the
+            // character of the last reset point is kept.
+            int left_hash = SpamSum.HASH_INIT;
+            int left_count = 0;
+            char left_last = 0;
+            int right_hash = SpamSum.HASH_INIT;
+            int right_count = 0;
+            char right_last = 0;
+
+            int start = 0;
+            for (int k = 0; k < count; k++) {
+                int top = tops[k];
+                if (top < level) {
+                    continue;
+                }
+
+                int end = positions[k] + 1;
+                for (int p = start; p < end; p++) {
+                    int c = document[p] & 0xFF;
+                    left_hash = SpamSum.sumHash(c, left_hash);
+                    right_hash = SpamSum.sumHash(c, right_hash);
+                }
+                start = end;
+
+                if (left_count < SpamSumHasher.LEFT_CAP) {
+                    left[left_count++] = SpamSumHasher.b64(left_hash);
+                    left_hash = SpamSum.HASH_INIT;
+                } else {
+                    left_last = SpamSumHasher.b64(left_hash);
+                }
+
+                if (top == level) {
+                    continue;
+                }
+                if (right_count < SpamSumHasher.HALF_CAP) {
+                    right[right_count++] = SpamSumHasher.b64(right_hash);
+                    right_hash = SpamSum.HASH_INIT;
+                } else {
+                    right_last = SpamSumHasher.b64(right_hash);
+                }
+            }
+
+            // the end of the document is only used if there is a tail
+            if (tail) {
+                for (int p = start; p < document.length; p++) {
+                    int c = document[p] & 0xFF;
+                    left_hash = SpamSum.sumHash(c, left_hash);
+                    right_hash = SpamSum.sumHash(c, right_hash);
+                }
+            }
+
+            String left_string =
+                    part(left, left_count, left_hash, left_last, tail);
+            String right_string;
+            if (level < last) {
+                right_string =
+                        part(right, right_count, right_hash, right_last, tail);
+            } else {
+                // level + 1 is identical to level, which never hit a reset
+                // point
+                right_string = tail
+                        ? String.valueOf(SpamSumHasher.b64(left_hash))
+                        : "";
+            }
+
+            return new Signature(
+                    left_string, right_string, SpamSum.MIN_BLOCKSIZE << level);
+        }
+
+        /**
+         * The count characters of a part, followed by the character of the
+         * tail, or by the character of the last reset point if the cap was
+         * reached.
+         */
+        private static String part(
+                final char[] chars,
+                final int count,
+                final int hash,
+                final char last,
+                final boolean tail) {
+
+            int length = count;
+            if (tail) {
+                chars[length++] = SpamSumHasher.b64(hash);
+            } else if (last != 0) {
+                chars[length++] = last;
+            }
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Recursively hash all regular files of a directory tree (like ssdeep -r),
+ * using the threads of an ExecutorService.
+ *
+ * Memory is bounded: at most max_files files are hashed at the same time,
+ * and the read buffers of these files never exceed max_bytes in total.
+ * Files are read by chunks, hence large files don't need more memory than
+ * small ones. Hashing is mostly I/O bound, so the executor can also be a
+ * virtual thread executor (Executors.newVirtualThreadPerTaskExecutor()).
+ *
+ * The tree is walked by the calling thread, which waits for a free slot
+ * before submitting each file. Tasks never block on each other, hence
+ * any executor can be used, including a fixed thread pool.
+ *
+ * @author Thibault Debatty
+ */
+public class DirectoryHasher {
+
+    /**
+     * Default size of the read buffer of a file.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Default limit for the read buffers of all files.
+     */
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private final ExecutorService executor;
+    private final int max_files;
+    private final int max_bytes;
+    private final int buffer_size;
+
+    /**
+     * Hash one file per available processor, with default buffers.
+     * @param executor
+     */
+    public DirectoryHasher(final ExecutorService executor) {
+        this(executor,
+                Runtime.getRuntime().availableProcessors(),
+                DEFAULT_MAX_BYTES,
+                DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     *
+     * @param executor used to hash the files
+     * @param max_files maximum number of files hashed at the same time
+     * @param max_bytes maximum size of all read buffers together
+     * @param buffer_size size of the read buffer of a file
+     */
+    public DirectoryHasher(
+            final ExecutorService executor,
+            final int max_files,
+            final int max_bytes,
+            final int buffer_size) {
+
+        if (max_files < 1 || max_bytes < 1 || buffer_size < 1) {
+            throw new IllegalArgumentException(
+                    "Limits and buffer size must be at least 1");
+        }
+
+        this.executor = executor;
+        this.max_files = max_files;
+        this.max_bytes = max_bytes;
+        this.buffer_size = Math.min(buffer_size, max_bytes);
+    }
+
+    /**
+     * Hash all regular files below root (or root itself if it is a file).
+     * Symbolic links are not followed. Results are delivered to the
+     * callback as soon as each file is hashed, in no particular order,
+     * and possibly from multiple threads at the same time.
+     * This method returns when all files are hashed.
+     *
+     * @param root
+     * @param callback
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public final void hash(final Path root, final Callback callback)
+            throws InterruptedException {
+        hash(Collections.singletonList(root), callback);
+    }
+
+    /**
+     * Hash all regular files below each of the roots. Files of all roots
+     * share the same limits, and this method only waits for them at the
+     * end (e.g. for a long list of files given on the command line).
+     *
+     * @param roots
+     * @param callback
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public final void hash(
+            final Collection<Path> roots, final Callback callback)
+            throws InterruptedException {
+
+        final Semaphore files = new Semaphore(max_files);
+        final Semaphore bytes = new Semaphore(max_bytes);
+
+        FileVisitor<Path> visitor = visitor(files, bytes, callback);
+        for (Path root : roots) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+
+            try {
+                Files.walkFileTree(root, visitor);
+            } catch (IOException ex) {
+                // the visitor reports its own errors
+                callback.failed(root, ex);
+            }
+        }
+
+        // wait for the remaining files
+        files.acquire(max_files);
+        files.release(max_files);
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Submit the regular files, and report the files and directories that
+     * could not be read. The walk always continues with the next file.
+     */
+    FileVisitor<Path> visitor(
+            final Semaphore files,
+            final Semaphore bytes,
+            final Callback callback) {
+
+        return new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(
+                    final Path file, final BasicFileAttributes attrs) {
+
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                try {
+                    submit(file, attrs.size(), files, bytes, callback);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(
+                    final Path file, final IOException ex) {
+                callback.failed(file, ex);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(
+                    final Path dir, final IOException ex) {
+                // the listing of the directory failed partway
+                if (ex != null) {
+                    callback.failed(dir, ex);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        };
+    }
+
+    private void submit(
+            final Path file,
+            final long size,
+            final Semaphore files,
+            final Semaphore bytes,
+            final Callback callback) throws InterruptedException {
+
+        final int buffer_bytes = (int) Math.max(1, Math.min(size, buffer_size));
+        files.acquire();
+        try {
+            bytes.acquire(buffer_bytes);
+        } catch (InterruptedException ex) {
+            files.release();
+            throw ex;
+        }
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Signature signature = hashFile(file, buffer_bytes);
+                    callback.hashed(file, signature);
+                } catch (IOException ex) {
+                    callback.failed(file, ex);
+                } finally {
+                    bytes.release(buffer_bytes);
+                    files.release();
+                }
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            bytes.release(buffer_bytes);
+            files.release();
+            throw ex;
+        }
+    }
+
+    private static Signature hashFile(final Path file, final int buffer_bytes)
+            throws IOException {
+
+        try (FileChannel channel =
+                FileChannel.open(file, StandardOpenOption.READ)) {
+
+            // like SpamSum.hashFile, only hash the bytes that were present
+            // when the file was opened
+            long start = SpamSum.start();
+            long size = channel.size();
+            SpamSumHasher hasher = new SpamSumHasher(0, size);
+            ByteBuffer buffer = ByteBuffer.allocate(buffer_bytes);
+            if (read(channel, hasher, buffer, size) == size) {
+                return SpamSum.digest(hasher, start);
+            }
+
+            // the file was truncated while it was read: the hasher dropped
+            // the block sizes that are too small for the expected size,
+            // hence hash it again with an unknown length
+            channel.position(0);
+            hasher.reset(0, -1);
+            read(channel, hasher, buffer, Long.MAX_VALUE);
+            return SpamSum.digest(hasher, start);
+        }
+    }
+
+    /**
+     * Hash at most count bytes of the channel.
+     * @return number of bytes hashed (less than count if the end of the
+     * channel was reached)
+     */
+    private static long read(
+            final FileChannel channel,
+            final SpamSumHasher hasher,
+            final ByteBuffer buffer,
+            final long count) throws IOException {
+
+        long remaining = count;
+        while (remaining > 0) {
+            buffer.limit((int) Math.min(remaining, buffer.capacity()));
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+            buffer.flip();
+            remaining -= buffer.remaining();
+            hasher.update(buffer);
+            buffer.clear();
+        }
+        return count - remaining;
+    }
+
+    /**
+     * Receives the results of DirectoryHasher. Methods can be called from
+     * multiple threads at the same time.
+     */
+    public interface Callback {
+
+        /**
+         * A file was successfully hashed.
+         * @param file
+         * @param signature
+         */
+        void hashed(Path file, Signature signature);
+
+        /**
+         * A file could not be read.
+         * @param file
+         * @param exception
+         */
+        void failed(Path file, IOException exception);
+    }
+}
@@ -24,6 +24,8 @@
 
 package info.debatty.java.spamsum;
 
+import java.util.Arrays;
+
 /**
  * Extended SpamSum.
  * This modified version of SpamSum is designed to be used when binning input
@@ -93,13 +95,50 @@ public class ESSum {
      * @return
      */
     public int[] HashString(String string, int bsize) {
-        byte[] in = string.getBytes(); // = StandardCharsets.UTF_8
+        signature = new int[SPAMSUM_LENGTH];
+        blocksize = hash(
+                string.getBytes(), // = StandardCharsets.UTF_8
+                bsize,
+                SPAMSUM_LENGTH,
+                CHARACTERS,
+                MIN_BLOCKSIZE,
+                signature,
+                0,
+                null,
+                0);
+        return signature;
+    }
+
+    /**
+     * Compute the ESSum hash of these bytes, and write the stages in out,
+     * starting at offset. Only local variables are used, hence this method
+     * is thread-safe. All computations use 32 bit int arithmetic, like the
+     * original C code with uint32.
+     *
+     * Short inputs don't reach the last stages, which are set to 0. As 0 is
+     * also a valid bucket, the number of stages that were actually reached
+     * is written in counts[count_index] (if counts is not null).
+     *
+     * @return the block size
+     */
+    static int hash(
+            final byte[] in,
+            final int bsize,
+            final int stages,
+            final int buckets,
+            final int min_blocksize,
+            final int[] out,
+            final int offset,
+            final int[] counts,
+            final int count_index) {
+
         int length = in.length;
+        int blocksize;
 
         if (bsize == 0) {
             /* guess a reasonable block size */
-            blocksize = MIN_BLOCKSIZE;
-            while (blocksize * SPAMSUM_LENGTH < length) {
+            blocksize = min_blocksize;
+            while (blocksize * stages < length) {
                 blocksize = blocksize * 2;
             }
 
@@ -109,83 +148,82 @@ public class ESSum {
 
         while (true) {
 
-            signature = new int[SPAMSUM_LENGTH];
+            Arrays.fill(out, offset, offset + stages, 0);
 
-            int k = 0;
             int j = 0;
-            long h3 = HASH_INIT;
-            long h2 = HASH_INIT;
-            long h = rolling_hash_reset();
+            int reached = 0;
+            int h2 = (int) HASH_INIT;
+            long window = 0;
+            int h1 = 0;
+            int rolling_h2 = 0;
+            int h3 = 0;
+            int h = 0;
 
             for (int i = 0; i < length; i++) {
 
                 /* at each character we update the rolling hash and the normal
                  * hash. When the rolling hash hits the reset value then we emit
-                 * the normal hash as a element of the signature and reset both
-                 * hashes
+                 * the normal hash as a element of the signature and reset
+                 * the normal hash
                  */
 
-                int character = (in[i] + 256) % 256;
-                h = rolling_hash(character);
-                h2 = sum_hash(character, h2);
-                h3 = sum_hash(character, h3);
+                int character = in[i] & 0xFF;
+                int out_character = (int) (window >>> 48) & 0xFF;
+                window = ((window << 8) | character) & 0x00FFFFFFFFFFFFFFL;
+                rolling_h2 += ROLLING_WINDOW * character - h1;
+                h1 += character - out_character;
+                h3 = (h3 << 5) ^ character;
+                h = h1 + rolling_h2 + h3;
 
-                if (h % blocksize == (blocksize - 1)) {
+                h2 = (h2 * (int) HASH_PRIME) ^ character;
 
-                    /* we have hit a reset polong. We now emit a hash which is based
-                     * on all chacaters in the piece of the string between the last
-                     * reset polong and this one
+                if ((h & 0xFFFFFFFFL) % blocksize == (blocksize - 1)) {
+
+                    /* we have hit a reset point. We now emit a hash which is
+                     * based on all chacaters in the piece of the string
+                     * between the last reset point and this one
                      */
 
-                    signature[j] = (int) (h2 % CHARACTERS);
-                    if (j < SPAMSUM_LENGTH - 1) {
+                    out[offset + j] = (int) ((h2 & 0xFFFFFFFFL) % buckets);
+                    reached = j + 1;
+                    if (j < stages - 1) {
 
-                        /* we can have a problem with the tail overflowing. The easiest way
-                         * to cope with this is to only reset the second hash if we have
-                         * room for more characters in our signature. This has the effect of
-                         * combining the last few pieces of the message longo a single piece
+                        /* we can have a problem with the tail overflowing.
+                         * The easiest way to cope with this is to only reset
+                         * the hash if we have room for more characters in our
+                         * signature. This has the effect of combining the
+                         * last few pieces of the message into a single piece
                          */
-                        h2 = HASH_INIT;
+                        h2 = (int) HASH_INIT;
                         j++;
                     }
                 }
-
-                /* this produces a second signature with a block size of block_size*2.
-                 * By producing dual signatures in this way the effect of small changes
-                 * in the string near a block size boundary is greatly reduced.
-                 */
-                if (h % (blocksize * 2) == ((blocksize * 2) - 1)) {
-                    //right[k] = B64[(int) (h3 % CHARACTERS)];
-                    if (k < SPAMSUM_LENGTH / 2 - 1) {
-                        h3 = HASH_INIT;
-                        k++;
-                    }
-                }
             }
 
-            /* If we have anything left then add it to the end. This ensures that the
-             * last part of the string is always considered
+            /* If we have anything left then add it to the end. This ensures
+             * that the last part of the string is always considered
              */
             if (h != 0) {
-                signature[j] = (int) (h2 % CHARACTERS);
-                //right[k] = B64[(int) (h3 % CHARACTERS)];
+                out[offset + j] = (int) ((h2 & 0xFFFFFFFFL) % buckets);
+                reached = j + 1;
             }
 
             /* Our blocksize guess may have been way off - repeat if necessary
              */
             if (
                     (bsize != 0) ||                 // blocksize was manually specified
-                    (blocksize <= MIN_BLOCKSIZE) || // current blocksize is already too small
-                    (j >= SPAMSUM_LENGTH / 2)       // dividing by 2 would produce a hash too small...
+                    (blocksize <= min_blocksize) || // current blocksize is already too small
+                    (j >= stages / 2)               // dividing by 2 would produce a hash too small...
             ) {
-                break;
+                if (counts != null) {
+                    counts[count_index] = reached;
+                }
+                return blocksize;
             } else {
                 blocksize = blocksize / 2;
                 // loop...
             }
         }
-
-        return signature;
     }
 
     //@Override
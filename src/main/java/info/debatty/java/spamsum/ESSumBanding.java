@@ -0,0 +1,259 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Locality-sensitive hashing (LSH) of ESSum hashes, to find candidate
+ * near-duplicates without comparing all pairs of strings.
+ *
+ * The stages of each hash are split in bands of consecutive stages. Two
+ * strings are candidates if, for at least one band, they have the same
+ * block size and the same value for all stages of the band. Fewer (larger)
+ * bands produce fewer, more similar candidates.
+ *
+ * Each band is processed by a different task of a ForkJoinPool: the strings
+ * are sorted by a hash of the band, and strings with the same band are
+ * paired. A band that is shared by more than max_bucket_size strings is
+ * ignored, since it would produce a quadratic number of pairs. Short
+ * strings don't reach the last stages, which remain 0: the bands that
+ * start after the last stage reached by a string (see
+ * Arena.getReachedStages()) are skipped, like in NearDuplicateDetector,
+ * otherwise all short strings would be candidates. Stages that were
+ * reached are always used, even if their value is 0.
+ *
+ * @author Thibault Debatty
+ */
+public class ESSumBanding {
+
+    /**
+     * Default maximum number of strings that share a band.
+     */
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 1000;
+
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+    private final int bands;
+    private final int max_bucket_size;
+    private final ForkJoinPool pool;
+
+    /**
+     * Use the common ForkJoinPool, and the default maximum bucket size.
+     *
+     * @param bands
+     */
+    public ESSumBanding(final int bands) {
+        this(bands, DEFAULT_MAX_BUCKET_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     * @param bands number of bands
+     * @param max_bucket_size bands that are shared by more strings are
+     * ignored
+     * @param pool the pool used to process the bands
+     */
+    public ESSumBanding(
+            final int bands,
+            final int max_bucket_size,
+            final ForkJoinPool pool) {
+
+        if (bands < 1 || max_bucket_size < 2) {
+            throw new IllegalArgumentException(
+                    "Need at least 1 band, and buckets of at least 2 strings");
+        }
+
+        this.bands = bands;
+        this.max_bucket_size = max_bucket_size;
+        this.pool = pool;
+    }
+
+    /**
+     * Find the pairs of strings that have at least one band in common.
+     * Each pair is packed in a long (see first() and second()), with the
+     * smallest index first. Pairs are sorted and unique.
+     *
+     * @param arena
+     * @return candidate pairs
+     */
+    public final long[] candidates(final ESSumBatch.Arena arena) {
+        int stages = arena.getStages();
+        if (bands > stages) {
+            throw new IllegalArgumentException(
+                    "Cannot split " + stages + " stages in " + bands
+                    + " bands");
+        }
+
+        Band[] tasks = new Band[bands];
+        for (int i = 0; i < bands; i++) {
+            tasks[i] = new Band(
+                    arena, i * stages / bands, (i + 1) * stages / bands);
+        }
+
+        long[][] results = pool.invoke(new RecursiveTask<long[][]>() {
+            @Override
+            protected long[][] compute() {
+                invokeAll(tasks);
+                long[][] results = new long[tasks.length][];
+                for (int i = 0; i < tasks.length; i++) {
+                    results[i] = tasks[i].getRawResult();
+                }
+                return results;
+            }
+        });
+
+        int total = 0;
+        for (long[] pairs : results) {
+            total += pairs.length;
+        }
+        long[] pairs = new long[total];
+        int position = 0;
+        for (long[] band_pairs : results) {
+            System.arraycopy(band_pairs, 0, pairs, position, band_pairs.length);
+            position += band_pairs.length;
+        }
+
+        // the same pair can be found in multiple bands
+        Arrays.parallelSort(pairs);
+        int count = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            if (count == 0 || pairs[i] != pairs[count - 1]) {
+                pairs[count++] = pairs[i];
+            }
+        }
+        return Arrays.copyOf(pairs, count);
+    }
+
+    /**
+     *
+     * @param pair
+     * @return index of the first string of the pair
+     */
+    public static int first(final long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    /**
+     *
+     * @param pair
+     * @return index of the second string of the pair
+     */
+    public static int second(final long pair) {
+        return (int) (pair & INDEX_MASK);
+    }
+
+    /**
+     * Find the pairs of strings that have the same stages in [from, to[.
+     */
+    private class Band extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final ESSumBatch.Arena arena;
+        private final int from;
+        private final int to;
+
+        Band(final ESSumBatch.Arena arena, final int from, final int to) {
+            this.arena = arena;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            int size = arena.size();
+
+            // 32 bits hash of the band, followed by the index of the string
+            long[] keys = new long[size];
+            int keys_count = 0;
+            for (int i = 0; i < size; i++) {
+                if (arena.getReachedStages(i) > from) {
+                    keys[keys_count++] = ((long) bandHash(i) << 32) | i;
+                }
+            }
+            Arrays.sort(keys, 0, keys_count);
+
+            long[] pairs = new long[16];
+            int count = 0;
+            int start = 0;
+            while (start < keys_count) {
+                int end = start + 1;
+                while (end < keys_count
+                        && (keys[end] >>> 32) == (keys[start] >>> 32)) {
+                    end++;
+                }
+
+                if (end - start <= max_bucket_size) {
+                    for (int i = start; i < end; i++) {
+                        int first = (int) (keys[i] & INDEX_MASK);
+                        for (int j = i + 1; j < end; j++) {
+                            int second = (int) (keys[j] & INDEX_MASK);
+
+                            // different bands can have the same hash
+                            if (!sameBand(first, second)) {
+                                continue;
+                            }
+                            if (count == pairs.length) {
+                                pairs = Arrays.copyOf(pairs, count * 2);
+                            }
+                            // keys are sorted, hence first < second
+                            pairs[count++] = ((long) first << 32) | second;
+                        }
+                    }
+                }
+                start = end;
+            }
+            return Arrays.copyOf(pairs, count);
+        }
+
+        private int bandHash(final int string) {
+            int[] hashes = arena.getHashes();
+            int offset = string * arena.getStages();
+            int hash = SpamSum.HASH_INIT ^ arena.getBlockSize(string);
+            for (int i = offset + from; i < offset + to; i++) {
+                hash = (hash ^ hashes[i]) * SpamSum.HASH_PRIME;
+                hash ^= hash >>> 15;
+            }
+            return hash;
+        }
+
+        private boolean sameBand(final int string1, final int string2) {
+            if (arena.getBlockSize(string1) != arena.getBlockSize(string2)) {
+                return false;
+            }
+            int[] hashes = arena.getHashes();
+            int offset1 = string1 * arena.getStages();
+            int offset2 = string2 * arena.getStages();
+            for (int i = from; i < to; i++) {
+                if (hashes[offset1 + i] != hashes[offset2 + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
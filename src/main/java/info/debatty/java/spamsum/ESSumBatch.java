@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compute the ESSum hash of a lot of strings in parallel. The stages of all
+ * strings are stored in a single flat int[] (an Arena), which can be reused
+ * for the next batch.
+ *
+ * Results are identical to ESSum.HashString().
+ *
+ * @author Thibault Debatty
+ */
+public class ESSumBatch {
+
+    // number of strings below which a task is not split anymore
+    private static final int LEAF_SIZE = 256;
+
+    private final int stages;
+    private final int buckets;
+    private final int min_blocksize;
+    private final ForkJoinPool pool;
+
+    /**
+     * Use the common ForkJoinPool, and a minimum block size of 3.
+     *
+     * @param stages
+     * @param buckets
+     */
+    public ESSumBatch(final int stages, final int buckets) {
+        this(stages, buckets, 3, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     * @param stages
+     * @param buckets
+     * @param min_blocksize
+     * @param pool the pool used to hash the strings
+     */
+    public ESSumBatch(
+            final int stages,
+            final int buckets,
+            final int min_blocksize,
+            final ForkJoinPool pool) {
+
+        if (stages < 1 || buckets < 1 || min_blocksize < 1) {
+            throw new IllegalArgumentException(
+                    "Stages, buckets and block size must be at least 1");
+        }
+
+        this.stages = stages;
+        this.buckets = buckets;
+        this.min_blocksize = min_blocksize;
+        this.pool = pool;
+    }
+
+    /**
+     *
+     * @param strings
+     * @return the hashes of the strings
+     */
+    public final Arena hash(final List<String> strings) {
+        return hash(strings, null);
+    }
+
+    /**
+     * Hash the strings, reusing the memory of a previous arena.
+     *
+     * @param strings
+     * @param arena a previous result, or null
+     * @return the hashes of the strings (arena, if it was not null)
+     */
+    public final Arena hash(final List<String> strings, final Arena arena) {
+        Arena result = arena;
+        if (result == null) {
+            result = new Arena();
+        }
+        result.reset(stages, strings.size());
+        pool.invoke(new Task(strings, result, 0, strings.size()));
+        return result;
+    }
+
+    /**
+     * Hash the strings of [from, to[.
+     */
+    private class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> strings;
+        private final Arena arena;
+        private final int from;
+        private final int to;
+
+        Task(
+                final List<String> strings,
+                final Arena arena,
+                final int from,
+                final int to) {
+
+            this.strings = strings;
+            this.arena = arena;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new Task(strings, arena, from, middle),
+                        new Task(strings, arena, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                arena.blocksizes[i] = ESSum.hash(
+                        strings.get(i).getBytes(),
+                        0,
+                        stages,
+                        buckets,
+                        min_blocksize,
+                        arena.hashes,
+                        i * stages,
+                        arena.reached,
+                        i);
+            }
+        }
+    }
+
+    /**
+     * The ESSum hashes of a batch of strings. Stage j of string i is stored
+     * at index i * stages + j of a single flat array.
+     */
+    public static final class Arena {
+        private int stages;
+        private int size;
+        private int[] hashes = new int[0];
+        private int[] blocksizes = new int[0];
+        private int[] reached = new int[0];
+
+        /**
+         * Prepare the arena for size strings, growing the arrays if needed.
+         */
+        void reset(final int stages, final int size) {
+            long length = (long) stages * size;
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "Too many strings for a single arena");
+            }
+
+            this.stages = stages;
+            this.size = size;
+            if (hashes.length < length) {
+                hashes = new int[(int) length];
+            }
+            if (blocksizes.length < size) {
+                blocksizes = new int[size];
+                reached = new int[size];
+            }
+        }
+
+        /**
+         *
+         * @return number of strings
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         *
+         * @return number of stages per string
+         */
+        public int getStages() {
+            return stages;
+        }
+
+        /**
+         *
+         * @param string index of the string in the batch
+         * @param stage
+         * @return
+         */
+        public int get(final int string, final int stage) {
+            if (string >= size || stage >= stages) {
+                throw new IndexOutOfBoundsException();
+            }
+            return hashes[string * stages + stage];
+        }
+
+        /**
+         *
+         * @param string index of the string in the batch
+         * @return
+         */
+        public int getBlockSize(final int string) {
+            if (string >= size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return blocksizes[string];
+        }
+
+        /**
+         * Short strings don't reach the last stages, which are 0 (but 0 is
+         * also a valid value for a stage that was reached).
+         *
+         * @param string index of the string in the batch
+         * @return number of stages that were reached by the string
+         */
+        public int getReachedStages(final int string) {
+            if (string >= size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return reached[string];
+        }
+
+        /**
+         * The underlying flat array, where stage j of string i is stored at
+         * index i * getStages() + j. The array may be longer than
+         * size() * getStages().
+         *
+         * @return
+         */
+        public int[] getHashes() {
+            return hashes;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+/**
+ * Bit-parallel Levenshtein edit distance, for strings of at most 64
+ * characters (the maximum length of a block of a signature).
+ *
+ * Each column of the dynamic programming matrix is encoded as bit vectors of
+ * vertical deltas (+1 / -1) that fit in a single long, hence the distance is
+ * computed in O(n) word operations instead of O(n.m).
+ *
+ * G. Myers. A fast bit-vector algorithm for approximate string matching
+ * based on dynamic programming. Journal of the ACM, 1999.
+ * H. Hyyro. A bit-vector algorithm for computing Levenshtein and Damerau
+ * edit distances. Nordic Journal of Computing, 2003.
+ *
+ * @author Thibault Debatty
+ */
+final class EditDistance {
+
+    /**
+     * Maximum length of the first string.
+     */
+    static final int MAX_LENGTH = 64;
+
+    private static final int ASCII = 128;
+
+    // for each thread, the match vector of each ASCII character
+    private static final ThreadLocal<long[]> PEQ = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[ASCII];
+        }
+    };
+
+    private EditDistance() {
+    }
+
+    /**
+     * Compute the Levenshtein distance between s1 (at most 64 characters)
+     * and s2.
+     *
+     * @param s1
+     * @param len1 length of s1 (at most 64)
+     * @param s2
+     * @param len2 length of s2
+     * @return
+     */
+    static int distance(
+            final char[] s1, final int len1, final char[] s2, final int len2) {
+
+        if (len1 > MAX_LENGTH) {
+            throw new IllegalArgumentException(
+                    "First string is limited to " + MAX_LENGTH + " characters");
+        }
+        if (len1 == 0) {
+            return len2;
+        }
+        if (len2 == 0) {
+            return len1;
+        }
+
+        // peq[c] has bit i set if s1[i] == c
+        long[] peq = PEQ.get();
+        for (int i = 0; i < len1; i++) {
+            char c = s1[i];
+            if (c < ASCII) {
+                peq[c] |= 1L << i;
+            }
+        }
+
+        long last = 1L << (len1 - 1);
+        long pv = -1L;
+        long mv = 0;
+        int score = len1;
+
+        for (int j = 0; j < len2; j++) {
+            char c = s2[j];
+            long eq = c < ASCII ? peq[c] : match(s1, len1, c);
+
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+
+            if ((ph & last) != 0) {
+                score++;
+            } else if ((mh & last) != 0) {
+                score--;
+            }
+
+            // the first row of the matrix is 0, 1, 2 ... hence the
+            // horizontal delta entering the column is always +1
+            ph = (ph << 1) | 1;
+            mh = mh << 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+        }
+
+        // clean up for next time
+        for (int i = 0; i < len1; i++) {
+            char c = s1[i];
+            if (c < ASCII) {
+                peq[c] = 0;
+            }
+        }
+
+        return score;
+    }
+
+    /**
+     * Check if s1 (at most 64 characters) and s2 have a common substring of
+     * ROLLING_WINDOW (7) characters.
+     *
+     * For each character of s2, bit i of run_k indicates that the k
+     * characters of s1 ending at position i are equal to the last k
+     * characters of s2. Hence, unlike the original C code, no hash needs to
+     * be computed and stored for each substring.
+     *
+     * @param s1
+     * @param len1 length of s1 (at most 64)
+     * @param s2
+     * @param len2 length of s2
+     * @return
+     */
+    static boolean hasCommonSubstring(
+            final char[] s1, final int len1, final char[] s2, final int len2) {
+
+        if (len1 > MAX_LENGTH) {
+            throw new IllegalArgumentException(
+                    "First string is limited to " + MAX_LENGTH + " characters");
+        }
+        if (len1 < SpamSum.ROLLING_WINDOW || len2 < SpamSum.ROLLING_WINDOW) {
+            return false;
+        }
+
+        long[] peq = PEQ.get();
+        for (int i = 0; i < len1; i++) {
+            char c = s1[i];
+            if (c < ASCII) {
+                peq[c] |= 1L << i;
+            }
+        }
+
+        long run_1 = 0;
+        long run_2 = 0;
+        long run_3 = 0;
+        long run_4 = 0;
+        long run_5 = 0;
+        long run_6 = 0;
+        long run_7 = 0;
+
+        for (int j = 0; j < len2 && run_7 == 0; j++) {
+            char c = s2[j];
+            long eq = c < ASCII ? peq[c] : match(s1, len1, c);
+
+            run_7 = eq & (run_6 << 1);
+            run_6 = eq & (run_5 << 1);
+            run_5 = eq & (run_4 << 1);
+            run_4 = eq & (run_3 << 1);
+            run_3 = eq & (run_2 << 1);
+            run_2 = eq & (run_1 << 1);
+            run_1 = eq;
+        }
+
+        // clean up for next time
+        for (int i = 0; i < len1; i++) {
+            char c = s1[i];
+            if (c < ASCII) {
+                peq[c] = 0;
+            }
+        }
+
+        return run_7 != 0;
+    }
+
+    /**
+     * Match vector of a non-ASCII character (which is not a valid signature
+     * character anyway).
+     */
+    private static long match(final char[] s1, final int len1, final char c) {
+        long eq = 0;
+        for (int i = 0; i < len1; i++) {
+            if (s1[i] == c) {
+                eq |= 1L << i;
+            }
+        }
+        return eq;
+    }
+}
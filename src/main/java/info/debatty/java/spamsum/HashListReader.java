@@ -0,0 +1,243 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Read a list of signatures in the format of ssdeep (e.g. ssdeep -l).
+ *
+ * <pre>
+ * ssdeep,1.1--blocksize:hash:hash,filename
+ * 48:9GCjd6ALqt7+svFIHO4CJ4...:9vvqt7+sUO4CKAXTgKDbRX...,"loremipsum2.txt"
+ * </pre>
+ *
+ * The list is read line by line, without creating a string per line: the
+ * signature and the filename of the current line are only created when
+ * they are requested.
+ *
+ * <pre>
+ * HashListReader reader = new HashListReader(in);
+ * while (reader.next()) {
+ *     Signature signature = reader.getSignature();
+ *     String filename = reader.getFilename();
+ * }
+ * </pre>
+ *
+ * @author Thibault Debatty
+ */
+public class HashListReader implements Closeable {
+
+    /**
+     * First line of a list of signatures.
+     */
+    public static final String HEADER =
+            "ssdeep,1.1--blocksize:hash:hash,filename";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+
+    // characters read from the reader
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int buffer_position;
+    private int buffer_limit;
+
+    // current line
+    private char[] line = new char[256];
+    private CharBuffer line_chars = CharBuffer.wrap(line);
+    private int line_length;
+    private int line_number;
+    private int comma;
+
+    private Signature signature;
+    private String filename;
+
+    /**
+     * The header is read immediately.
+     * @param reader
+     * @throws IOException if an I/O error occurs, or if the header is
+     * missing
+     */
+    public HashListReader(final Reader reader) throws IOException {
+        this.reader = reader;
+        if (!readLine() || !HEADER.contentEquals(line_chars)) {
+            throw new IOException("Invalid header, expected " + HEADER);
+        }
+    }
+
+    /**
+     * Move to the next signature of the list. Empty lines are skipped.
+     * @return false if the end of the list is reached
+     * @throws IOException if an I/O error occurs, or if the line has no
+     * filename
+     */
+    public final boolean next() throws IOException {
+        signature = null;
+        filename = null;
+
+        do {
+            if (!readLine()) {
+                return false;
+            }
+        } while (line_length == 0);
+
+        comma = -1;
+        for (int i = 0; i < line_length; i++) {
+            if (line[i] == ',') {
+                comma = i;
+                break;
+            }
+        }
+        if (comma == -1) {
+            throw new IOException("Invalid line " + line_number);
+        }
+        return true;
+    }
+
+    /**
+     * Parse the signature of the current line.
+     * @return
+     * @throws IOException if the signature is not valid
+     */
+    public final Signature getSignature() throws IOException {
+        if (signature == null) {
+            try {
+                signature = Signature.parse(line_chars, 0, comma);
+            } catch (IllegalArgumentException ex) {
+                throw new IOException(
+                        "Invalid signature on line " + line_number, ex);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Parse the filename of the current line. Surrounding quotes are
+     * removed, and escaped quotes (\") are unescaped.
+     * @return
+     * @throws IOException if a quote is missing
+     */
+    public final String getFilename() throws IOException {
+        if (filename != null) {
+            return filename;
+        }
+
+        int start = comma + 1;
+        if (start == line_length || line[start] != '"') {
+            filename = new String(line, start, line_length - start);
+            return filename;
+        }
+
+        if (line_length - start < 2 || line[line_length - 1] != '"') {
+            throw new IOException("Missing quote on line " + line_number);
+        }
+
+        StringBuilder builder = new StringBuilder(line_length - start - 2);
+        for (int i = start + 1; i < line_length - 1; i++) {
+            char c = line[i];
+            if (c == '\\' && i + 1 < line_length - 1 && line[i + 1] == '"') {
+                i++;
+                c = line[i];
+            }
+            builder.append(c);
+        }
+        filename = builder.toString();
+        return filename;
+    }
+
+    /**
+     *
+     * @return number of the current line (the header is line 1)
+     */
+    public final int getLineNumber() {
+        return line_number;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Read the next line in the line buffer, without the line terminator
+     * (\n or \r\n).
+     */
+    private boolean readLine() throws IOException {
+        line_length = 0;
+        boolean read = false;
+
+        while (true) {
+            if (buffer_position == buffer_limit) {
+                buffer_limit = reader.read(buffer);
+                buffer_position = 0;
+                if (buffer_limit <= 0) {
+                    buffer_limit = 0;
+                    break;
+                }
+            }
+            read = true;
+
+            int end = buffer_position;
+            while (end < buffer_limit && buffer[end] != '\n') {
+                end++;
+            }
+            append(buffer_position, end);
+
+            if (end < buffer_limit) {
+                buffer_position = end + 1;
+                break;
+            }
+            buffer_position = buffer_limit;
+        }
+
+        if (!read) {
+            return false;
+        }
+
+        line_number++;
+        if (line_length > 0 && line[line_length - 1] == '\r') {
+            line_length--;
+        }
+        line_chars.limit(line_length);
+        return true;
+    }
+
+    private void append(final int from, final int to) {
+        int count = to - from;
+        if (line_length + count > line.length) {
+            char[] larger =
+                    new char[Math.max(line.length * 2, line_length + count)];
+            System.arraycopy(line, 0, larger, 0, line_length);
+            line = larger;
+            line_chars = CharBuffer.wrap(line);
+        }
+        System.arraycopy(buffer, from, line, line_length, count);
+        line_length += count;
+    }
+}
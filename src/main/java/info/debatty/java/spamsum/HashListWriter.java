@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Write a list of signatures in the format of ssdeep (e.g. ssdeep -l), that
+ * can be read by HashListReader or by ssdeep -m.
+ *
+ * @author Thibault Debatty
+ */
+public class HashListWriter implements Closeable, Flushable {
+
+    private final Writer writer;
+
+    /**
+     * The header is written immediately.
+     * @param writer
+     * @throws IOException if an I/O error occurs
+     */
+    public HashListWriter(final Writer writer) throws IOException {
+        this.writer = writer;
+        writer.write(HashListReader.HEADER);
+        writer.write('\n');
+    }
+
+    /**
+     * Write a signature and the name of the corresponding file. The
+     * filename is quoted, and quotes are escaped (\"), like ssdeep does.
+     * @param signature
+     * @param filename
+     * @throws IOException if an I/O error occurs
+     */
+    public final void write(final Signature signature, final String filename)
+            throws IOException {
+
+        writer.write(signature.toString());
+        writer.write(",\"");
+        for (int i = 0; i < filename.length(); i++) {
+            char c = filename.charAt(i);
+            if (c == '"') {
+                writer.write('\\');
+            }
+            writer.write(c);
+        }
+        writer.write("\"\n");
+    }
+
+    @Override
+    public final void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public final void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line tool, with the options and output format of ssdeep.
+ *
+ * <pre>
+ * java -jar java-spamsum.jar [-rblsh] [-d | -x | -m FILE] [-t N] FILES
+ * </pre>
+ *
+ * Files are hashed by one thread per available processor (see
+ * DirectoryHasher). Signatures and matches are written as soon as each
+ * file is hashed, hence not necessarily in the order of the arguments.
+ * Comparisons of -d and -x are computed at the end, by SignatureClustering.
+ *
+ * The exit status is 0 if all files could be read, and 1 otherwise.
+ *
+ * @author Thibault Debatty
+ */
+public final class Main {
+
+    static final String NAME = "spamsum";
+
+    static final String USAGE =
+            "Usage: " + NAME + " [-rblsh] [-d | -x | -m FILE] [-t N] FILES\n"
+            + "-r  Recursive mode, hash the files of directories\n"
+            + "-b  Bare mode, print file names without their path\n"
+            + "-l  Print relative paths, as given on the command line\n"
+            + "-s  Silent mode, do not print errors\n"
+            + "-m  Match FILES against the known hashes of FILE"
+            + " (can be repeated)\n"
+            + "-d  Directory mode, compare FILES with each other\n"
+            + "-x  Compare the signatures of the hash lists FILES"
+            + " with each other\n"
+            + "-t  Only print matches with a score higher than N\n"
+            + "-h  Print this help\n";
+
+    private static final int MAX_SCORE = 100;
+
+    private final Writer out;
+    private final PrintStream err;
+
+    private boolean help;
+    private boolean recursive;
+    private boolean bare;
+    private boolean relative;
+    private boolean silent;
+    private boolean compare_files;
+    private boolean compare_lists;
+    private int threshold;
+    private final List<String> known_lists = new ArrayList<String>();
+    private final List<String> inputs = new ArrayList<String>();
+
+    private volatile boolean failed;
+
+    private Main(final PrintStream out, final PrintStream err) {
+        this.out = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.err = err;
+    }
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(final String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Run the command line tool.
+     * @param args
+     * @param out
+     * @param err
+     * @return exit status
+     */
+    static int run(
+            final String[] args, final PrintStream out, final PrintStream err) {
+
+        Main main = new Main(out, err);
+        try {
+            main.parse(args);
+        } catch (IllegalArgumentException ex) {
+            err.println(NAME + ": " + ex.getMessage());
+            err.print(USAGE);
+            return 1;
+        }
+
+        if (main.help) {
+            out.print(USAGE);
+            return 0;
+        }
+
+        try {
+            main.execute();
+            main.out.flush();
+        } catch (IOException ex) {
+            main.error(ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            main.error("Interrupted");
+        }
+        return main.failed ? 1 : 0;
+    }
+
+    private void parse(final String[] args) {
+        int i = 0;
+        while (i < args.length
+                && args[i].startsWith("-") && args[i].length() > 1) {
+
+            String arg = args[i++];
+            if (arg.equals("--")) {
+                break;
+            }
+
+            for (int j = 1; j < arg.length(); j++) {
+                char option = arg.charAt(j);
+                switch (option) {
+                    case 'h':
+                        help = true;
+                        return;
+                    case 'r':
+                        recursive = true;
+                        break;
+                    case 'b':
+                        bare = true;
+                        break;
+                    case 'l':
+                        relative = true;
+                        break;
+                    case 's':
+                        silent = true;
+                        break;
+                    case 'd':
+                        compare_files = true;
+                        break;
+                    case 'x':
+                        compare_lists = true;
+                        break;
+                    case 'm':
+                    case 't':
+                        // the value is the rest of the argument (-t50), or
+                        // the next argument (-t 50)
+                        String value;
+                        if (j + 1 < arg.length()) {
+                            value = arg.substring(j + 1);
+                        } else if (i < args.length) {
+                            value = args[i++];
+                        } else {
+                            throw new IllegalArgumentException(
+                                    "Option -" + option
+                                    + " requires an argument");
+                        }
+                        if (option == 'm') {
+                            known_lists.add(value);
+                        } else {
+                            threshold = parseThreshold(value);
+                        }
+                        j = arg.length();
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Invalid option -" + option);
+                }
+            }
+        }
+
+        while (i < args.length) {
+            inputs.add(args[i++]);
+        }
+
+        int modes = (compare_files ? 1 : 0) + (compare_lists ? 1 : 0)
+                + (known_lists.isEmpty() ? 0 : 1);
+        if (modes > 1) {
+            throw new IllegalArgumentException(
+                    "Options -d, -x and -m cannot be combined");
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input files");
+        }
+    }
+
+    private static int parseThreshold(final String value) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            parsed = -1;
+        }
+        if (parsed < 0 || parsed > MAX_SCORE) {
+            throw new IllegalArgumentException(
+                    "Threshold must be between 0 and " + MAX_SCORE);
+        }
+        return parsed;
+    }
+
+    private void execute() throws IOException, InterruptedException {
+        if (compare_lists) {
+            compareLists();
+        } else if (!known_lists.isEmpty()) {
+            matchFiles();
+        } else if (compare_files) {
+            compareFiles();
+        } else {
+            hashFiles();
+        }
+    }
+
+    /**
+     * Default mode: write the signature of each file.
+     */
+    private void hashFiles() throws IOException, InterruptedException {
+        final HashListWriter writer = new HashListWriter(out);
+        hash(new Results() {
+            @Override
+            public void hashed(final Path file, final Signature signature) {
+                synchronized (out) {
+                    try {
+                        writer.write(signature, name(file));
+                    } catch (IOException ex) {
+                        failed(file, ex);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * -m : match each file against the signatures of the known lists.
+     */
+    private void matchFiles() throws IOException, InterruptedException {
+        List<Signature> signatures = new ArrayList<Signature>();
+        List<String> labels = new ArrayList<String>();
+        for (String list : known_lists) {
+            if (!readList(list, signatures, labels)) {
+                return;
+            }
+        }
+
+        // a signature can appear with multiple names
+        final SignatureIndex index = new SignatureIndex();
+        final Map<Signature, List<String>> names =
+                new HashMap<Signature, List<String>>();
+        for (int i = 0; i < signatures.size(); i++) {
+            Signature signature = signatures.get(i);
+            List<String> signature_names = names.get(signature);
+            if (signature_names == null) {
+                signature_names = new ArrayList<String>(1);
+                names.put(signature, signature_names);
+                index.add(signature);
+            }
+            signature_names.add(labels.get(i));
+        }
+
+        hash(new Results() {
+            @Override
+            public void hashed(final Path file, final Signature signature) {
+                String name = name(file);
+                StringBuilder lines = new StringBuilder();
+                for (SignatureIndex.Result result
+                        : index.search(signature, threshold + 1)) {
+                    for (String known : names.get(result.getSignature())) {
+                        appendMatch(lines, name, known, result.getScore());
+                    }
+                }
+                print(file, lines);
+            }
+        });
+    }
+
+    /**
+     * -d : compare all files with each other.
+     */
+    private void compareFiles() throws IOException, InterruptedException {
+        final List<Hashed> hashed = new ArrayList<Hashed>();
+        hash(new Results() {
+            @Override
+            public void hashed(final Path file, final Signature signature) {
+                Hashed result = new Hashed(name(file), signature);
+                synchronized (hashed) {
+                    hashed.add(result);
+                }
+            }
+        });
+
+        // files are hashed in no particular order
+        Collections.sort(hashed, new Comparator<Hashed>() {
+            @Override
+            public int compare(final Hashed h1, final Hashed h2) {
+                return h1.name.compareTo(h2.name);
+            }
+        });
+
+        List<Signature> signatures = new ArrayList<Signature>();
+        List<String> labels = new ArrayList<String>();
+        for (Hashed result : hashed) {
+            signatures.add(result.signature);
+            labels.add(result.name);
+        }
+        printPairs(signatures, labels);
+    }
+
+    /**
+     * -x : compare all signatures of the lists with each other.
+     */
+    private void compareLists() throws IOException {
+        List<Signature> signatures = new ArrayList<Signature>();
+        List<String> labels = new ArrayList<String>();
+        for (String list : inputs) {
+            readList(list, signatures, labels);
+        }
+        printPairs(signatures, labels);
+    }
+
+    private void printPairs(
+            final List<Signature> signatures, final List<String> labels)
+            throws IOException {
+
+        StringBuilder lines = new StringBuilder();
+        for (SignatureClustering.Pair pair
+                : new SignatureClustering().pairs(signatures, threshold + 1)) {
+            appendMatch(
+                    lines,
+                    labels.get(pair.getFirstIndex()),
+                    labels.get(pair.getSecondIndex()),
+                    pair.getScore());
+        }
+        out.write(lines.toString());
+    }
+
+    private static void appendMatch(
+            final StringBuilder lines,
+            final String name1,
+            final String name2,
+            final int score) {
+
+        lines.append(name1).append(" matches ").append(name2)
+                .append(" (").append(score).append(")\n");
+    }
+
+    /**
+     * Read a hash list, each signature is labelled list:filename.
+     * @return false if the list could not be read
+     */
+    private boolean readList(
+            final String list,
+            final List<Signature> signatures,
+            final List<String> labels) {
+
+        HashListReader reader = null;
+        try {
+            reader = new HashListReader(Files.newBufferedReader(
+                    Paths.get(list), StandardCharsets.UTF_8));
+            while (reader.next()) {
+                signatures.add(reader.getSignature());
+                labels.add(list + ":" + reader.getFilename());
+            }
+            return true;
+
+        } catch (IOException ex) {
+            error(list + ": " + describe(ex));
+            return false;
+
+        } catch (InvalidPathException ex) {
+            error(list + ": " + ex.getReason());
+            return false;
+
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    error(list + ": " + describe(ex));
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash the input files (and directories, in recursive mode) in
+     * parallel.
+     */
+    private void hash(final Results results) throws InterruptedException {
+        List<Path> roots = new ArrayList<Path>();
+        for (String input : inputs) {
+            Path path;
+            try {
+                path = Paths.get(input);
+            } catch (InvalidPathException ex) {
+                error(input + ": " + ex.getReason());
+                continue;
+            }
+
+            if (!recursive && Files.isDirectory(path)) {
+                error(input + ": Is a directory");
+                continue;
+            }
+            roots.add(path);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            new DirectoryHasher(executor).hash(roots, results);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private String name(final Path file) {
+        if (bare && file.getFileName() != null) {
+            return file.getFileName().toString();
+        }
+        if (relative) {
+            return file.toString();
+        }
+        return file.toAbsolutePath().toString();
+    }
+
+    private void print(final Path file, final CharSequence lines) {
+        if (lines.length() == 0) {
+            return;
+        }
+        synchronized (out) {
+            try {
+                out.append(lines);
+            } catch (IOException ex) {
+                failed(file, ex);
+            }
+        }
+    }
+
+    private void failed(final Path file, final IOException ex) {
+        error(file + ": " + describe(ex));
+    }
+
+    private void error(final String message) {
+        failed = true;
+        if (!silent) {
+            synchronized (err) {
+                err.println(NAME + ": " + message);
+            }
+        }
+    }
+
+    private static String describe(final IOException ex) {
+        if (ex instanceof NoSuchFileException) {
+            return "No such file or directory";
+        }
+        if (ex instanceof AccessDeniedException) {
+            return "Permission denied";
+        }
+        if (ex instanceof FileSystemException
+                && ((FileSystemException) ex).getReason() != null) {
+            return ((FileSystemException) ex).getReason();
+        }
+        return ex.getMessage();
+    }
+
+    /**
+     * Read errors are reported the same way in all modes.
+     */
+    private abstract class Results implements DirectoryHasher.Callback {
+
+        @Override
+        public void failed(final Path file, final IOException ex) {
+            Main.this.failed(file, ex);
+        }
+    }
+
+    /**
+     * A file hashed in directory mode.
+     */
+    private static final class Hashed {
+        private final String name;
+        private final Signature signature;
+
+        Hashed(final String name, final Signature signature) {
+            this.name = name;
+            this.signature = signature;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of match scores, for workloads that compare the same
+ * signatures over and over.
+ *
+ * The score does not depend on the order of the signatures, hence
+ * match(a, b) and match(b, a) share the same entry. The cache is split in
+ * stripes, each with its own lock and least recently used (LRU) eviction,
+ * so it can be used by multiple threads. Scores are computed outside of the
+ * locks. Signatures with incompatible block sizes are never cached, since
+ * their score (0) is cheaper to compute than a lookup.
+ *
+ * @author Thibault Debatty
+ */
+public class MatchCache {
+
+    private static final int STRIPES = 16;
+
+    private final SpamSum spamsum = new SpamSum();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     *
+     * @param capacity maximum number of scores in the cache (split between
+     * the stripes)
+     */
+    public MatchCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+
+        // the first stripes get the remainder
+        for (int i = 0; i < STRIPES; i++) {
+            int stripe_capacity =
+                    capacity / STRIPES + (i < capacity % STRIPES ? 1 : 0);
+            stripes[i] = new Stripe(stripe_capacity);
+        }
+    }
+
+    /**
+     * Compute the match score between two signatures, or get it from the
+     * cache.
+     * @param sig1
+     * @param sig2
+     * @return score between 0 and 100
+     */
+    public final int match(final Signature sig1, final Signature sig2) {
+        if (!SpamSum.compatible(sig1.getBlockSize(), sig2.getBlockSize())) {
+            return SpamSum.rejected(sig1.getBlockSize(), sig2.getBlockSize());
+        }
+
+        Pair pair = new Pair(sig1, sig2);
+        Stripe stripe = stripes[(pair.hash >>> 16) & (STRIPES - 1)];
+
+        Integer score;
+        synchronized (stripe) {
+            score = stripe.get(pair);
+        }
+        if (score != null) {
+            hits.increment();
+            return score;
+        }
+
+        misses.increment();
+        int computed = spamsum.match(sig1, sig2);
+        synchronized (stripe) {
+            stripe.put(pair, computed);
+        }
+        return computed;
+    }
+
+    /**
+     *
+     * @return number of scores in the cache
+     */
+    public final int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Remove all scores from the cache. Statistics are not reset.
+     */
+    public final void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return number of scores found in the cache
+     */
+    public final long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     *
+     * @return number of scores that had to be computed
+     */
+    public final long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     *
+     * @return number of scores removed from the cache to make room
+     */
+    public final long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     *
+     * @return hits / (hits + misses), or 0 if the cache was never used
+     */
+    public final double getHitRate() {
+        long hit_count = hits.sum();
+        long total = hit_count + misses.sum();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) hit_count / total;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchCache{size=" + size()
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "}";
+    }
+
+    /**
+     * LRU map, used under the lock of the stripe.
+     */
+    private final class Stripe extends LinkedHashMap<Pair, Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<Pair, Integer> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Unordered pair of signatures.
+     */
+    private static final class Pair {
+        private final Signature sig1;
+        private final Signature sig2;
+        private final int hash;
+
+        Pair(final Signature sig1, final Signature sig2) {
+            this.sig1 = sig1;
+            this.sig2 = sig2;
+
+            // symmetric, and spread over all bits
+            int h1 = sig1.hashCode();
+            int h2 = sig2.hashCode();
+            int h = (h1 + h2) * 0x9E3779B9 ^ (h1 * h2);
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Pair)) {
+                return false;
+            }
+            Pair pair = (Pair) other;
+            return (sig1.equals(pair.sig1) && sig2.equals(pair.sig2))
+                    || (sig1.equals(pair.sig2) && sig2.equals(pair.sig1));
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Online near-duplicate detector for a stream of messages, with bounded
+ * memory.
+ *
+ * Each message is hashed with ESSum, and its stages are split in bands
+ * (like ESSumBanding). The detector remembers the bands of the recent
+ * messages: a message is a near-duplicate if, for at least one band, a
+ * recent message had the same block size and the same value for all
+ * stages of the band. Bands that start after the last stage reached by a
+ * short message (the following stages remain 0) are ignored.
+ *
+ * Bands are stored in primitive hash tables (64 bit key, timestamp),
+ * optionally off-heap (direct buffers). Tables are split in stripes with
+ * their own lock, hence ingestion threads rarely contend. Each stripe
+ * has two generations: new bands are inserted in the current generation
+ * and, when it is full (or older than max_age), the previous generation is
+ * dropped and the current one becomes the previous. Bands that are seen
+ * again are copied to the current generation. Hence the detector
+ * remembers (approximately) at least the last capacity messages (sliding
+ * window), and the memory footprint never grows.
+ *
+ * @author Thibault Debatty
+ */
+public class NearDuplicateDetector {
+
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    // stages of the message, followed by the number of stages reached
+    private static final ThreadLocal<int[]> STAGES = new ThreadLocal<int[]>();
+
+    private final int stages;
+    private final int buckets;
+    private final int bands;
+    private final long max_age;
+    private final Stripe[] stripes;
+
+    /**
+     * Size-based window, stored on the heap.
+     *
+     * @param stages number of ESSum stages
+     * @param buckets number of ESSum buckets
+     * @param bands number of bands
+     * @param capacity number of recent messages to remember
+     */
+    public NearDuplicateDetector(
+            final int stages,
+            final int buckets,
+            final int bands,
+            final int capacity) {
+        this(stages, buckets, bands, capacity, 0, false);
+    }
+
+    /**
+     *
+     * @param stages number of ESSum stages
+     * @param buckets number of ESSum buckets
+     * @param bands number of bands
+     * @param capacity number of recent messages to remember
+     * @param max_age messages older than max_age (ms) are forgotten, or 0
+     * to only use a size-based window
+     * @param off_heap store the tables in direct buffers
+     */
+    public NearDuplicateDetector(
+            final int stages,
+            final int buckets,
+            final int bands,
+            final int capacity,
+            final long max_age,
+            final boolean off_heap) {
+
+        if (stages < 1 || buckets < 1 || bands < 1 || bands > stages
+                || capacity < 1 || max_age < 0) {
+            throw new IllegalArgumentException("Invalid parameters");
+        }
+
+        this.stages = stages;
+        this.buckets = buckets;
+        this.bands = bands;
+        this.max_age = max_age;
+
+        int stripe_capacity = (int) Math.max(
+                MIN_STRIPE_CAPACITY,
+                ((long) capacity * bands + DEFAULT_STRIPES - 1)
+                    / DEFAULT_STRIPES);
+        stripes = new Stripe[DEFAULT_STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(stripe_capacity, max_age, off_heap);
+        }
+    }
+
+    /**
+     * Check if a near-duplicate of this message was seen recently, and
+     * remember the message. Uses the current time.
+     *
+     * @param message
+     * @return true if a near-duplicate was seen
+     */
+    public final boolean check(final String message) {
+        return check(message.getBytes(), System.currentTimeMillis());
+    }
+
+    /**
+     * Check if a near-duplicate of this message was seen recently, and
+     * remember the message.
+     *
+     * @param message
+     * @param timestamp time of the message (ms), used for max_age
+     * @return true if a near-duplicate was seen
+     */
+    public final boolean check(final byte[] message, final long timestamp) {
+        int[] hash = STAGES.get();
+        if (hash == null || hash.length < stages + 1) {
+            hash = new int[stages + 1];
+            STAGES.set(hash);
+        }
+        int blocksize = ESSum.hash(
+                message, 0, stages, buckets, 3, hash, 0, hash, stages);
+        int reached = hash[stages];
+
+        boolean found = false;
+        for (int band = 0; band < bands; band++) {
+            int from = band * stages / bands;
+            int to = (band + 1) * stages / bands;
+            if (from >= reached) {
+                // this band and the following ones were not reached
+                break;
+            }
+
+            long key = bandKey(hash, blocksize, band, from, to);
+
+            Stripe stripe = stripes[(int) (key >>> 58) & (stripes.length - 1)];
+            found |= stripe.checkAndPut(key, timestamp);
+        }
+        return found;
+    }
+
+    /**
+     *
+     * @return number of bands currently remembered (including the bands
+     * that are too old but not dropped yet)
+     */
+    public final long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * 64 bit hash of the block size, band index and stages [from, to[.
+     * 0 is reserved for empty slots.
+     */
+    private static long bandKey(
+            final int[] hash,
+            final int blocksize,
+            final int band,
+            final int from,
+            final int to) {
+
+        long key = mix(((long) blocksize << 32) | band);
+        for (int i = from; i < to; i++) {
+            key = mix(key ^ hash[i]);
+        }
+        return key == 0 ? 1 : key;
+    }
+
+    /**
+     * Finalizer of MurmurHash3 (64 bits).
+     */
+    private static long mix(final long value) {
+        long x = value;
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /**
+     * Two generations of an open addressing hash table (linear probing),
+     * from 64 bit keys to timestamps.
+     */
+    private static final class Stripe {
+        private final int capacity;
+        private final int mask;
+        private final long max_age;
+
+        private final LongBuffer[] keys = new LongBuffer[2];
+        private final LongBuffer[] stamps = new LongBuffer[2];
+        private final int[] counts = new int[2];
+        private int current = 0;
+        private long generation_start = Long.MIN_VALUE;
+
+        Stripe(final int capacity, final long max_age, final boolean off_heap) {
+            this.capacity = capacity;
+            this.max_age = max_age;
+
+            // load factor of at most 0.5
+            int slots = Integer.highestOneBit(capacity) * 4;
+            this.mask = slots - 1;
+            for (int i = 0; i < 2; i++) {
+                keys[i] = allocate(slots, off_heap);
+                stamps[i] = allocate(slots, off_heap);
+            }
+        }
+
+        private static LongBuffer allocate(
+                final int slots, final boolean off_heap) {
+            if (off_heap) {
+                return ByteBuffer.allocateDirect(slots * 8).asLongBuffer();
+            }
+            return LongBuffer.allocate(slots);
+        }
+
+        synchronized boolean checkAndPut(final long key, final long now) {
+            if (generation_start == Long.MIN_VALUE) {
+                generation_start = now;
+            }
+
+            boolean found = false;
+            for (int generation = 0; generation < 2; generation++) {
+                int slot = find(generation, key);
+                if (keys[generation].get(slot) == key
+                        && (max_age == 0
+                            || now - stamps[generation].get(slot) <= max_age)) {
+                    found = true;
+                }
+            }
+
+            if (counts[current] == capacity
+                    || (max_age > 0 && now - generation_start > max_age)) {
+                rotate(now);
+            }
+
+            int slot = find(current, key);
+            if (keys[current].get(slot) != key) {
+                keys[current].put(slot, key);
+                counts[current]++;
+            }
+            stamps[current].put(slot, now);
+            return found;
+        }
+
+        /**
+         * Slot that contains the key, or the empty slot where it should be
+         * inserted.
+         */
+        private int find(final int generation, final long key) {
+            LongBuffer table = keys[generation];
+            int slot = (int) key & mask;
+            while (true) {
+                long value = table.get(slot);
+                if (value == key || value == 0) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Drop the previous generation, which becomes the (empty) current
+         * generation.
+         */
+        private void rotate(final long now) {
+            current = 1 - current;
+            LongBuffer table = keys[current];
+            for (int i = 0; i <= mask; i++) {
+                table.put(i, 0);
+            }
+            counts[current] = 0;
+            generation_start = now;
+        }
+
+        synchronized long size() {
+            return counts[0] + counts[1];
+        }
+    }
+}
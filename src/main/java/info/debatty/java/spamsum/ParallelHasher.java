@@ -0,0 +1,566 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compute the signature of a single large input (e.g. a disk image) using
+ * all threads of a ForkJoinPool. The signature is identical to the one
+ * computed by SpamSum.
+ *
+ * The rolling hash only depends on the last ROLLING_WINDOW bytes, hence
+ * the reset points can be found by scanning chunks of the input in
+ * parallel. This first pass counts the reset points of every candidate
+ * block size, which is enough to select the block size, and records the
+ * position of the reset points that will be used in the signature.
+ *
+ * The sum hash (FNV) cannot be split, but each character of the
+ * signature is the sum hash of the bytes between two reset points, which
+ * starts from HASH_INIT. Hence, in the second pass, the pieces of the two
+ * block sizes used by the signature are hashed in parallel.
+ *
+ * @author Thibault Debatty
+ */
+public class ParallelHasher {
+
+    /**
+     * Inputs smaller than this are hashed by a single thread.
+     */
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    // number of chunks per thread, for load balancing
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // a single buffer cannot map more than 2GB
+    private static final int MAP_WINDOW_BITS = 30;
+
+    private final ForkJoinPool pool;
+    private final int min_chunk_size;
+
+    /**
+     * Use the common ForkJoinPool.
+     */
+    public ParallelHasher() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     * @param pool the pool used to hash the input
+     */
+    public ParallelHasher(final ForkJoinPool pool) {
+        this(pool, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     *
+     * @param pool
+     * @param min_chunk_size
+     */
+    ParallelHasher(final ForkJoinPool pool, final int min_chunk_size) {
+        this.pool = pool;
+        this.min_chunk_size = min_chunk_size;
+    }
+
+    /**
+     * Computes and returns the spamsum signature of this array of bytes.
+     * The block size is automatically computed.
+     *
+     * @param bytes
+     * @return spamsum signature
+     */
+    public final Signature hash(final byte[] bytes) {
+        return hash(new ByteBuffer[] {ByteBuffer.wrap(bytes)}, 31, 0);
+    }
+
+    /**
+     * Computes and returns the spamsum signature of the remaining bytes of
+     * this buffer, using the given block size. The position of the buffer
+     * is not modified.
+     *
+     * @param buffer
+     * @param blocksize if 0, the block size is automatically computed
+     * @return spamsum signature
+     */
+    public final Signature hash(final ByteBuffer buffer, final int blocksize) {
+        return hash(new ByteBuffer[] {buffer.slice()}, 31, blocksize);
+    }
+
+    /**
+     * Computes and returns the spamsum signature of this file.
+     * The file is mapped in memory, like SpamSum.hashFile().
+     * The block size is automatically computed.
+     *
+     * @param path
+     * @return spamsum signature
+     * @throws IOException if an I/O error occurs
+     */
+    public final Signature hashFile(final Path path) throws IOException {
+        try (FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long size = channel.size();
+            long window = 1L << MAP_WINDOW_BITS;
+            ByteBuffer[] windows =
+                    new ByteBuffer[(int) ((size + window - 1) / window)];
+            for (int i = 0; i < windows.length; i++) {
+                long position = i * window;
+                windows[i] = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        position,
+                        Math.min(window, size - position));
+            }
+            return hash(windows, MAP_WINDOW_BITS, 0);
+        }
+    }
+
+    /**
+     * Hash the input made of these buffers. All buffers, except the last
+     * one, must contain exactly 2^window_bits bytes.
+     */
+    final Signature hash(
+            final ByteBuffer[] windows,
+            final int window_bits,
+            final int blocksize) {
+
+        if (blocksize < 0) {
+            throw new IllegalArgumentException(
+                    "Block size must be positive or 0");
+        }
+
+        long start = SpamSum.start();
+        Input input = new Input(windows, window_bits);
+        long length = input.length;
+
+        long chunk_size = Math.max(
+                min_chunk_size,
+                length / (pool.getParallelism() * CHUNKS_PER_THREAD) + 1);
+        if (length <= chunk_size) {
+            SpamSumHasher hasher = new SpamSumHasher(blocksize, length);
+            for (ByteBuffer window : windows) {
+                hasher.update(window.duplicate());
+            }
+            return SpamSum.digest(hasher, start);
+        }
+
+        // same settings as SpamSumHasher, when the length is known
+        int base_blocksize;
+        int max_level;
+        if (blocksize == 0) {
+            base_blocksize = SpamSum.MIN_BLOCKSIZE;
+            max_level = Math.min(
+                    SpamSumHasher.guessLevel(length) + 1,
+                    SpamSumHasher.MAX_LEVELS - 1);
+        } else {
+            base_blocksize = blocksize;
+            max_level = 1;
+        }
+
+        // first pass : reset points
+        Scan[] scans = new Scan[(int) ((length + chunk_size - 1) / chunk_size)];
+        for (int i = 0; i < scans.length; i++) {
+            scans[i] = new Scan(
+                    input,
+                    i * chunk_size,
+                    Math.min(length, (i + 1) * chunk_size),
+                    base_blocksize,
+                    max_level + 1);
+        }
+        pool.invoke(new All(scans));
+
+        long[] totals = new long[max_level + 1];
+        for (Scan scan : scans) {
+            for (int i = 0; i <= max_level; i++) {
+                totals[i] += scan.count(i);
+            }
+        }
+
+        // Levels above last never hit a reset point, and level last
+        // has not hit one either, unless last == max_level
+        int last = 0;
+        while (last < max_level && totals[last] > 0) {
+            last++;
+        }
+
+        // same selection rules as SpamSumHasher.digest(), which only drops
+        // the levels that can no longer be selected
+        int level = 0;
+        if (blocksize == 0) {
+            level = Math.min(SpamSumHasher.guessLevel(length), last);
+            while (level > 0
+                    && Math.min(totals[level], SpamSumHasher.LEFT_CAP)
+                        < SpamSum.SPAMSUM_LENGTH / 2) {
+                level--;
+            }
+        }
+        boolean tail = scans[scans.length - 1].h != 0;
+
+        // second pass : sum hash of the pieces
+        Part left = new Part(
+                input, scans, level, SpamSumHasher.LEFT_CAP, tail);
+        Part right = null;
+        if (level < last) {
+            right = new Part(
+                    input, scans, level + 1, SpamSumHasher.HALF_CAP, tail);
+            pool.invoke(new All(left.pieces, right.pieces));
+        } else {
+            pool.invoke(new All(left.pieces));
+        }
+
+        String right_string;
+        if (right != null) {
+            right_string = right.toString();
+        } else {
+            // level + 1 is identical to level, which never hit a reset point
+            right_string = tail
+                    ? String.valueOf(left.pieces[left.pieces.length - 1].b64())
+                    : "";
+        }
+
+        Signature signature = new Signature(
+                left.toString(), right_string, base_blocksize << level);
+        int halvings = 0;
+        if (blocksize == 0) {
+            halvings = SpamSumHasher.halvings(length, signature.getBlockSize());
+        }
+        SpamSum.hashed(length, signature, halvings, start);
+        return signature;
+    }
+
+    /**
+     * The input, made of one or more buffers.
+     */
+    private static final class Input {
+        private final ByteBuffer[] windows;
+        private final int window_bits;
+        private final long length;
+
+        Input(final ByteBuffer[] windows, final int window_bits) {
+            this.windows = windows;
+            this.window_bits = window_bits;
+
+            long total = 0;
+            for (ByteBuffer window : windows) {
+                total += window.remaining();
+            }
+            this.length = total;
+        }
+
+        ByteBuffer window(final long position) {
+            return windows[(int) (position >>> window_bits)];
+        }
+
+        /**
+         * Offset of the window that contains position.
+         */
+        long windowStart(final long position) {
+            return (position >>> window_bits) << window_bits;
+        }
+    }
+
+    /**
+     * Find the reset points in [from, to[. Reset points of level i + 1 are
+     * a subset of the reset points of level i, hence each reset point is
+     * only recorded for the highest level it belongs to (its top level).
+     * For each top level, count the reset points and keep the position of
+     * the first LEFT_CAP ones, and of the last one.
+     */
+    private static final class Scan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Input input;
+        private final long from;
+        private final long to;
+
+        // base block size = odd << shift
+        private final int shift;
+        private final long inverse;
+        private final long limit;
+
+        private final long[] top_counts;
+        private final long[][] top_positions;
+        private final long[] top_lasts;
+
+        // rolling hash after the last byte
+        private int h;
+
+        Scan(
+                final Input input,
+                final long from,
+                final long to,
+                final int base_blocksize,
+                final int levels) {
+
+            this.input = input;
+            this.from = from;
+            this.to = to;
+
+            // x is a multiple of odd iff x * inverse (mod 2^64) <= limit,
+            // in which case x * inverse is the quotient
+            shift = Integer.numberOfTrailingZeros(base_blocksize);
+            long odd = base_blocksize >>> shift;
+            long x = odd;
+            for (int i = 0; i < 5; i++) {
+                // Newton iteration: doubles the number of correct bits
+                x *= 2 - odd * x;
+            }
+            inverse = x;
+            limit = Long.divideUnsigned(-1L, odd);
+
+            this.top_counts = new long[levels];
+            this.top_positions = new long[levels][];
+            this.top_lasts = new long[levels];
+        }
+
+        @Override
+        protected void compute() {
+            int max_top = top_counts.length - 1;
+            long low_bits = (1L << shift) - 1;
+            long window = 0;
+            int h1 = 0;
+            int h2 = 0;
+            int h3 = 0;
+            int rolling = 0;
+
+            // the rolling hash only depends on the previous bytes
+            long p = Math.max(0, from - SpamSum.ROLLING_WINDOW);
+            while (p < to) {
+                ByteBuffer buffer = input.window(p);
+                long window_start = input.windowStart(p);
+                int end = (int) Math.min(to - window_start, buffer.limit());
+
+                for (int i = (int) (p - window_start); i < end; i++, p++) {
+                    int c = buffer.get(i) & 0xFF;
+
+                    int out = (int) (window >>> 48) & 0xFF;
+                    window = ((window << 8) | c) & 0x00FFFFFFFFFFFFFFL;
+                    h2 += SpamSum.ROLLING_WINDOW * c - h1;
+                    h1 += c - out;
+                    h3 = (h3 << 5) ^ c;
+                    rolling = h1 + h2 + h3;
+
+                    // rolling % (base << i) == (base << i) - 1 iff
+                    // rolling + 1 is a multiple of base and of 2^i
+                    long next = (rolling & 0xFFFFFFFFL) + 1;
+                    long quotient = (next >>> shift) * inverse;
+                    if ((next & low_bits) != 0
+                            || Long.compareUnsigned(quotient, limit) > 0
+                            || p < from) {
+                        continue;
+                    }
+
+                    int top = Math.min(
+                            Long.numberOfTrailingZeros(quotient), max_top);
+                    long count = ++top_counts[top];
+                    top_lasts[top] = p;
+                    if (count <= SpamSumHasher.LEFT_CAP) {
+                        if (top_positions[top] == null) {
+                            top_positions[top] =
+                                    new long[SpamSumHasher.LEFT_CAP];
+                        }
+                        top_positions[top][(int) count - 1] = p;
+                    }
+                }
+            }
+            h = rolling;
+        }
+
+        /**
+         * Number of reset points of this level.
+         */
+        long count(final int level) {
+            long count = 0;
+            for (int top = level; top < top_counts.length; top++) {
+                count += top_counts[top];
+            }
+            return count;
+        }
+
+        /**
+         * Position of the last reset point of this level, or -1.
+         */
+        long last(final int level) {
+            long last = -1;
+            for (int top = level; top < top_counts.length; top++) {
+                if (top_counts[top] > 0) {
+                    last = Math.max(last, top_lasts[top]);
+                }
+            }
+            return last;
+        }
+
+        /**
+         * Position of the first LEFT_CAP reset points of this level.
+         */
+        long[] positions(final int level) {
+            long[] positions = new long[0];
+            for (int top = level; top < top_counts.length; top++) {
+                if (top_counts[top] == 0) {
+                    continue;
+                }
+                int count = (int) Math.min(
+                        top_counts[top], SpamSumHasher.LEFT_CAP);
+                int previous = positions.length;
+                positions = Arrays.copyOf(positions, previous + count);
+                System.arraycopy(
+                        top_positions[top], 0, positions, previous, count);
+            }
+            Arrays.sort(positions);
+            return Arrays.copyOf(positions,
+                    Math.min(positions.length, SpamSumHasher.LEFT_CAP));
+        }
+    }
+
+    /**
+     * A part of the signature: the pieces between the first cap reset
+     * points of a level, and the last piece.
+     */
+    private static final class Part {
+        private final Piece[] pieces;
+
+        Part(
+                final Input input,
+                final Scan[] scans,
+                final int level,
+                final int cap,
+                final boolean tail) {
+
+            // position of the first cap reset points, and of the last one
+            long[] resets = new long[cap];
+            int count = 0;
+            long total = 0;
+            long last = -1;
+            for (Scan scan : scans) {
+                if (count < cap) {
+                    long[] positions = scan.positions(level);
+                    int copied = Math.min(positions.length, cap - count);
+                    System.arraycopy(positions, 0, resets, count, copied);
+                    count += copied;
+                }
+                total += scan.count(level);
+                last = Math.max(last, scan.last(level));
+            }
+
+            // the sum hash is not reset after cap characters, hence the last
+            // piece goes until the last reset point, or the end of the input
+            boolean extra = tail || total > cap;
+            pieces = new Piece[count + (extra ? 1 : 0)];
+            long start = 0;
+            for (int i = 0; i < count; i++) {
+                pieces[i] = new Piece(input, start, resets[i] + 1);
+                start = resets[i] + 1;
+            }
+            if (tail) {
+                pieces[count] = new Piece(input, start, input.length);
+            } else if (extra) {
+                pieces[count] = new Piece(input, start, last + 1);
+            }
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[pieces.length];
+            for (int i = 0; i < pieces.length; i++) {
+                chars[i] = pieces[i].b64();
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Sum hash of the bytes in [from, to[.
+     */
+    private static final class Piece extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Input input;
+        private final long from;
+        private final long to;
+        private int hash;
+
+        Piece(final Input input, final long from, final long to) {
+            this.input = input;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int sum = SpamSum.HASH_INIT;
+            long p = from;
+            while (p < to) {
+                ByteBuffer buffer = input.window(p);
+                long window_start = input.windowStart(p);
+                int end = (int) Math.min(to - window_start, buffer.limit());
+
+                for (int i = (int) (p - window_start); i < end; i++) {
+                    sum = SpamSum.sumHash(buffer.get(i) & 0xFF, sum);
+                }
+                p = window_start + end;
+            }
+            hash = sum;
+        }
+
+        char b64() {
+            return SpamSumHasher.b64(hash);
+        }
+    }
+
+    /**
+     * Run tasks in parallel.
+     */
+    private static final class All extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ForkJoinTask<?>[][] groups;
+
+        All(final ForkJoinTask<?>[]... groups) {
+            this.groups = groups;
+        }
+
+        @Override
+        protected void compute() {
+            for (ForkJoinTask<?>[] tasks : groups) {
+                for (ForkJoinTask<?> task : tasks) {
+                    task.fork();
+                }
+            }
+            for (ForkJoinTask<?>[] tasks : groups) {
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A Flow.Processor that applies a function to each item, using several
+ * threads of an Executor, with backpressure: at most buffer_size items
+ * are requested from the upstream publisher and not yet delivered to the
+ * subscriber. Each time an item is delivered, one more item is requested.
+ * Hence if the subscriber stops requesting items, the processor stops
+ * requesting items from the publisher, and memory stays bounded.
+ *
+ * If ordered is true, results are delivered in the order of the input.
+ * Otherwise they are delivered as soon as they are computed, which avoids
+ * waiting for a slow item.
+ *
+ * The processor accepts a single subscriber. Errors (from the publisher,
+ * or thrown by the function) are delivered immediately, without waiting
+ * for the items that are still being processed, and the subscription to
+ * the publisher is cancelled.
+ *
+ * See SpamSumFlow for processors that hash and match documents.
+ *
+ * @author Thibault Debatty
+ * @param <T> type of the input items
+ * @param <R> type of the results
+ */
+public class ParallelProcessor<T, R> implements Flow.Processor<T, R> {
+
+    /**
+     * Default maximum number of items in the processor.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    private final Function<? super T, ? extends R> function;
+    private final Executor executor;
+    private final int parallelism;
+    private final int buffer_size;
+    private final boolean ordered;
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super R> downstream;
+    private boolean subscribed = false;
+    private long demand = 0;
+    private int running = 0;
+    private boolean completed = false;
+    private Throwable error = null;
+    private boolean done = false;
+
+    // items that are not processed yet
+    private final ArrayDeque<Item> pending = new ArrayDeque<Item>();
+
+    // items that can be delivered: all items by order of arrival if
+    // ordered, otherwise only the items that are processed
+    private final ArrayDeque<Item> queue = new ArrayDeque<Item>();
+
+    // serializes the signals sent to the subscriber
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * Use the common ForkJoinPool, with one task per thread of the pool,
+     * a buffer of DEFAULT_BUFFER_SIZE items, and ordered results.
+     *
+     * @param function
+     */
+    public ParallelProcessor(final Function<? super T, ? extends R> function) {
+        this(
+                function,
+                ForkJoinPool.commonPool(),
+                ForkJoinPool.getCommonPoolParallelism(),
+                DEFAULT_BUFFER_SIZE,
+                true);
+    }
+
+    /**
+     *
+     * @param function the function applied to each item
+     * @param executor the executor used to run the function
+     * @param parallelism maximum number of items processed concurrently
+     * @param buffer_size maximum number of items requested from the
+     * publisher and not yet delivered to the subscriber
+     * @param ordered if true, results are delivered in the order of the
+     * input
+     */
+    public ParallelProcessor(
+            final Function<? super T, ? extends R> function,
+            final Executor executor,
+            final int parallelism,
+            final int buffer_size,
+            final boolean ordered) {
+
+        if (parallelism < 1 || buffer_size < 1) {
+            throw new IllegalArgumentException(
+                    "Parallelism and buffer size must be at least 1");
+        }
+
+        this.function = function;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.buffer_size = buffer_size;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public final void onSubscribe(final Flow.Subscription subscription) {
+        synchronized (lock) {
+            if (upstream != null) {
+                // a processor can only be subscribed once
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        }
+        subscription.request(buffer_size);
+    }
+
+    @Override
+    public final void onNext(final T input) {
+        if (input == null) {
+            throw new NullPointerException("Item cannot be null");
+        }
+
+        boolean start = false;
+        synchronized (lock) {
+            if (done) {
+                return;
+            }
+            Item item = new Item(input);
+            pending.add(item);
+            if (ordered) {
+                queue.add(item);
+            }
+            if (running < parallelism) {
+                running++;
+                start = true;
+            }
+        }
+
+        // the executor may run the worker in this thread
+        if (start) {
+            try {
+                executor.execute(new Worker());
+            } catch (RejectedExecutionException ex) {
+                synchronized (lock) {
+                    running--;
+                    if (error == null) {
+                        error = ex;
+                    }
+                }
+                drain();
+            }
+        }
+    }
+
+    @Override
+    public final void onError(final Throwable throwable) {
+        synchronized (lock) {
+            if (error == null) {
+                error = throwable;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public final void onComplete() {
+        synchronized (lock) {
+            completed = true;
+        }
+        drain();
+    }
+
+    @Override
+    public final void subscribe(final Flow.Subscriber<? super R> subscriber) {
+        synchronized (lock) {
+            if (subscribed) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(final long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException(
+                        "Processor already has a subscriber"));
+                return;
+            }
+            subscribed = true;
+        }
+
+        // nothing is delivered before onSubscribe returns
+        subscriber.onSubscribe(new Downstream());
+        synchronized (lock) {
+            downstream = subscriber;
+        }
+        drain();
+    }
+
+    /**
+     * Deliver the results, the error or the completion signal to the
+     * subscriber, if possible. Only one thread runs the loop at a time.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        while (true) {
+            while (true) {
+                Flow.Subscriber<? super R> subscriber;
+                Flow.Subscription subscription;
+                R result;
+                Throwable failure = null;
+                boolean complete = false;
+
+                synchronized (lock) {
+                    subscriber = downstream;
+                    subscription = upstream;
+                    if (subscriber == null || done) {
+                        break;
+                    }
+
+                    Item head = queue.peek();
+                    if (error != null) {
+                        failure = error;
+                    } else if (head == null || !head.processed) {
+                        complete = completed && head == null
+                                && pending.isEmpty() && running == 0;
+                        if (!complete) {
+                            break;
+                        }
+                    } else if (demand == 0) {
+                        break;
+                    }
+
+                    if (failure != null || complete) {
+                        terminate();
+                        result = null;
+                    } else {
+                        queue.poll();
+                        demand--;
+                        result = head.result;
+                    }
+                }
+
+                if (failure != null) {
+                    if (subscription != null) {
+                        subscription.cancel();
+                    }
+                    subscriber.onError(failure);
+                    break;
+                } else if (complete) {
+                    subscriber.onComplete();
+                    break;
+                }
+
+                subscriber.onNext(result);
+                subscription.request(1);
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drop all items. Must be called with the lock.
+     */
+    private void terminate() {
+        done = true;
+        pending.clear();
+        queue.clear();
+    }
+
+    /**
+     * An input item, and its result once it is processed.
+     */
+    private final class Item {
+        private final T input;
+        private R result;
+        private boolean processed = false;
+
+        Item(final T input) {
+            this.input = input;
+        }
+    }
+
+    /**
+     * Process pending items, until there are none left.
+     */
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            Item item;
+            synchronized (lock) {
+                item = pending.poll();
+                if (item == null) {
+                    running--;
+                }
+            }
+
+            if (item == null) {
+                // the item was taken by another worker, but the processor
+                // may now be complete
+                drain();
+                return;
+            }
+
+            while (item != null) {
+                R result = null;
+                Throwable failure = null;
+                try {
+                    result = function.apply(item.input);
+                } catch (RuntimeException | Error ex) {
+                    failure = ex;
+                }
+
+                synchronized (lock) {
+                    item.result = result;
+                    item.processed = true;
+                    if (failure != null && error == null) {
+                        error = failure;
+                    }
+                    if (!ordered && !done) {
+                        queue.add(item);
+                    }
+
+                    item = pending.poll();
+                    if (item == null) {
+                        running--;
+                    }
+                }
+                drain();
+            }
+        }
+    }
+
+    /**
+     * The subscription of the subscriber.
+     */
+    private final class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(final long n) {
+            synchronized (lock) {
+                if (n <= 0) {
+                    if (error == null) {
+                        error = new IllegalArgumentException(
+                                "Number of requested items must be positive");
+                    }
+                } else {
+                    demand += n;
+                    if (demand < 0) {
+                        // overflow: unbounded demand
+                        demand = Long.MAX_VALUE;
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription subscription;
+            synchronized (lock) {
+                if (done) {
+                    return;
+                }
+                terminate();
+                subscription = upstream;
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+/**
+ * A signature that is ready to be compared.
+ *
+ * Before comparing two signatures, sequences of identical characters are
+ * eliminated, and the signature is split in two blocks. A prepared signature
+ * performs these operations once, which is useful when the same signature is
+ * compared to a lot of other signatures:
+ * <pre>
+ * PreparedSignature query = new PreparedSignature(signature);
+ * for (PreparedSignature other : database) {
+ *     int score = spamsum.match(query, other);
+ * }
+ * </pre>
+ *
+ * @author Thibault Debatty
+ */
+public final class PreparedSignature {
+
+    private final Signature signature;
+    private final int blocksize;
+
+    // first block is abc:def
+    private final char[] first;
+
+    // second block is :def
+    private final char[] second;
+
+    /**
+     * Prepare this signature for comparison.
+     * @param signature
+     */
+    public PreparedSignature(final Signature signature) {
+        this(
+                signature,
+                (int) signature.getBlockSize(),
+                signature.getLeft() + ":" + signature.getRight());
+    }
+
+    /**
+     * Prepare a signature provided as text. The text is not validated (it
+     * may contain characters that are not part of the Base64 alphabet).
+     *
+     * @param blocksize
+     * @param blocks both blocks of the signature (abc:def)
+     */
+    PreparedSignature(final int blocksize, final String blocks) {
+        this(null, blocksize, blocks);
+    }
+
+    private PreparedSignature(
+            final Signature signature,
+            final int blocksize,
+            final String blocks) {
+
+        this.signature = signature;
+        this.blocksize = blocksize;
+
+        // there is very little information content is sequences of
+        // the same character like 'LLLLL'. Eliminate any sequences
+        // longer than 3.
+        String eliminated = SpamSum.eliminateSequences(blocks);
+        first = eliminated.toCharArray();
+
+        // second block is the part between the first and the second ':'
+        int start = eliminated.indexOf(':') + 1;
+        int end = eliminated.indexOf(':', start);
+        if (end == -1) {
+            end = eliminated.length();
+        }
+        second = (":" + eliminated.substring(start, end)).toCharArray();
+    }
+
+    /**
+     *
+     * @return the original signature, or null if this signature was
+     * prepared from text
+     */
+    public Signature getSignature() {
+        return signature;
+    }
+
+    /**
+     *
+     * @return block size
+     */
+    public int getBlockSize() {
+        return blocksize;
+    }
+
+    char[] getFirst() {
+        return first;
+    }
+
+    char[] getSecond() {
+        return second;
+    }
+}
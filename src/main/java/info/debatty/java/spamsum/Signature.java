@@ -24,25 +24,323 @@
 
 package info.debatty.java.spamsum;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Represents a spamsum signature.
+ *
+ * To keep the memory footprint small, the signature is stored as an array of
+ * 6-bit symbols (the index of each character in the Base64 alphabet), packed
+ * 10 symbols per long.
+ *
+ * Signatures can be converted to and from their usual text representation
+ * (toString() and parse()), and to and from a compact binary representation
+ * (writeTo() and readFrom()), which has the following layout (big-endian):
+ * <pre>
+ * int     block size
+ * byte    number of symbols of the left part
+ * byte    number of symbols of the right part
+ * byte[]  symbols of the left part then of the right part, packed 6 bits
+ *         per symbol (4 symbols in 3 bytes), most significant bits first,
+ *         and padded with 0 bits to a whole number of bytes
+ * </pre>
+ *
  * @author Thibault Debatty
  */
 public class Signature {
 
+    /**
+     * Maximum number of characters in each part of the signature.
+     */
+    public static final int MAX_LENGTH = SpamSum.SPAMSUM_LENGTH;
+
+    private static final int SYMBOL_BITS = 6;
+    private static final int SYMBOL_MASK = (1 << SYMBOL_BITS) - 1;
+    private static final int SYMBOLS_PER_WORD = 10;
+    private static final int HEADER_SIZE = 6;
+
+    // index of each character in the Base64 alphabet, or -1
+    static final byte[] B64_INDEX = new byte[128];
+
+    static {
+        for (int i = 0; i < B64_INDEX.length; i++) {
+            B64_INDEX[i] = -1;
+        }
+        for (int i = 0; i < SpamSum.B64.length; i++) {
+            B64_INDEX[SpamSum.B64[i]] = (byte) i;
+        }
+    }
+
     private final int blocksize;
-    private final String left;
-    private final String right;
+    private final byte left_length;
+    private final byte right_length;
+    private final long[] symbols;
 
     Signature(final String left, final String right, final int blocksize) {
-        this.left = left;
-        this.right = right;
+        this(blocksize, left.length(), right.length());
+        for (int i = 0; i < left.length(); i++) {
+            setSymbol(i, symbolOf(left.charAt(i)));
+        }
+        for (int i = 0; i < right.length(); i++) {
+            setSymbol(left.length() + i, symbolOf(right.charAt(i)));
+        }
+    }
+
+    private Signature(
+            final int blocksize, final int left_length, final int right_length) {
+        if (blocksize <= 0) {
+            throw new IllegalArgumentException(
+                    "Block size must be positive: " + blocksize);
+        }
+        if (left_length > MAX_LENGTH || right_length > MAX_LENGTH
+                || left_length < 0 || right_length < 0) {
+            throw new IllegalArgumentException(
+                    "Each part of a signature has at most " + MAX_LENGTH
+                    + " characters");
+        }
+
         this.blocksize = blocksize;
+        this.left_length = (byte) left_length;
+        this.right_length = (byte) right_length;
+        this.symbols = new long[
+                (left_length + right_length + SYMBOLS_PER_WORD - 1)
+                / SYMBOLS_PER_WORD];
+    }
+
+    /**
+     * Parse the text representation of a signature, as produced by
+     * toString(). E.g. : 3:hMCEqNE0M+YFFWV5wdgHMyA8FNzs1b:hujkYFFWV51HM8Lzs1b
+     *
+     * @param string
+     * @return signature
+     * @throws IllegalArgumentException if the string is not a valid
+     * signature
+     */
+    public static Signature parse(final String string) {
+        return parse(string, 0, string.length());
+    }
+
+    /**
+     * Parse the text representation of a signature, between start
+     * (inclusive) and end (exclusive), without creating intermediate
+     * strings.
+     *
+     * @param chars
+     * @param start
+     * @param end
+     * @return signature
+     * @throws IllegalArgumentException if the string is not a valid
+     * signature
+     */
+    static Signature parse(
+            final CharSequence chars, final int start, final int end) {
+
+        int first_colon = -1;
+        int second_colon = -1;
+        for (int i = start; i < end; i++) {
+            if (chars.charAt(i) == ':') {
+                if (first_colon == -1) {
+                    first_colon = i;
+                } else if (second_colon == -1) {
+                    second_colon = i;
+                } else {
+                    throw invalid(chars, start, end);
+                }
+            }
+        }
+
+        if (second_colon == -1
+                || first_colon == start
+                || first_colon - start > 10) {
+            throw invalid(chars, start, end);
+        }
+
+        long blocksize = 0;
+        for (int i = start; i < first_colon; i++) {
+            char c = chars.charAt(i);
+            if (c < '0' || c > '9') {
+                throw invalid(chars, start, end);
+            }
+            blocksize = blocksize * 10 + (c - '0');
+        }
+
+        int left_length = second_colon - first_colon - 1;
+        int right_length = end - second_colon - 1;
+        if (blocksize > Integer.MAX_VALUE || blocksize == 0
+                || left_length > MAX_LENGTH || right_length > MAX_LENGTH) {
+            throw invalid(chars, start, end);
+        }
+
+        Signature signature = new Signature(
+                (int) blocksize, left_length, right_length);
+        int index = 0;
+        for (int i = first_colon + 1; i < end; i++) {
+            if (i == second_colon) {
+                continue;
+            }
+            char c = chars.charAt(i);
+            if (c >= B64_INDEX.length || B64_INDEX[c] < 0) {
+                throw invalid(chars, start, end);
+            }
+            signature.setSymbol(index++, B64_INDEX[c]);
+        }
+        return signature;
+    }
+
+    /**
+     * Read a signature in binary format.
+     *
+     * @param in
+     * @return signature
+     * @throws IOException if an I/O error occurs, or if the data is not a
+     * valid signature
+     */
+    public static Signature readFrom(final DataInput in) throws IOException {
+        int blocksize = in.readInt();
+        int left_length = in.readUnsignedByte();
+        int right_length = in.readUnsignedByte();
+
+        Signature signature;
+        try {
+            signature = new Signature(blocksize, left_length, right_length);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid signature", ex);
+        }
+
+        int count = left_length + right_length;
+        int accumulator = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            if (bits < SYMBOL_BITS) {
+                accumulator = (accumulator << 8) | in.readUnsignedByte();
+                bits += 8;
+            }
+            bits -= SYMBOL_BITS;
+            signature.setSymbol(i, (accumulator >>> bits) & SYMBOL_MASK);
+        }
+        return signature;
+    }
+
+    /**
+     * Read a signature in binary format, starting at the current position of
+     * the buffer. When this method returns, the position of the buffer is
+     * right after the signature.
+     *
+     * @param buffer
+     * @return signature
+     * @throws BufferUnderflowException if the buffer is too short
+     * @throws IllegalArgumentException if the data is not a valid signature
+     */
+    public static Signature readFrom(final ByteBuffer buffer) {
+        int blocksize = buffer.getInt();
+        int left_length = buffer.get() & 0xFF;
+        int right_length = buffer.get() & 0xFF;
+        Signature signature =
+                new Signature(blocksize, left_length, right_length);
+
+        int count = left_length + right_length;
+        int accumulator = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            if (bits < SYMBOL_BITS) {
+                accumulator = (accumulator << 8) | (buffer.get() & 0xFF);
+                bits += 8;
+            }
+            bits -= SYMBOL_BITS;
+            signature.setSymbol(i, (accumulator >>> bits) & SYMBOL_MASK);
+        }
+        return signature;
+    }
+
+    /**
+     * Write this signature in binary format.
+     *
+     * @param out
+     * @throws IOException if an I/O error occurs
+     */
+    public final void writeTo(final DataOutput out) throws IOException {
+        out.writeInt(blocksize);
+        out.writeByte(left_length);
+        out.writeByte(right_length);
+
+        int count = getSymbolCount();
+        int accumulator = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            accumulator = (accumulator << SYMBOL_BITS) | getSymbol(i);
+            bits += SYMBOL_BITS;
+            if (bits >= 8) {
+                bits -= 8;
+                out.writeByte(accumulator >>> bits);
+            }
+        }
+        if (bits > 0) {
+            out.writeByte(accumulator << (8 - bits));
+        }
+    }
+
+    /**
+     * Write this signature in binary format, at the current position of the
+     * buffer.
+     *
+     * @param buffer
+     * @throws java.nio.BufferOverflowException if there is not enough space
+     * left in the buffer (see getSerializedSize())
+     */
+    public final void writeTo(final ByteBuffer buffer) {
+        buffer.putInt(blocksize);
+        buffer.put(left_length);
+        buffer.put(right_length);
+
+        int count = getSymbolCount();
+        int accumulator = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            accumulator = (accumulator << SYMBOL_BITS) | getSymbol(i);
+            bits += SYMBOL_BITS;
+            if (bits >= 8) {
+                bits -= 8;
+                buffer.put((byte) (accumulator >>> bits));
+            }
+        }
+        if (bits > 0) {
+            buffer.put((byte) (accumulator << (8 - bits)));
+        }
+    }
+
+    /**
+     *
+     * @return number of bytes required to write this signature in binary
+     * format
+     */
+    public final int getSerializedSize() {
+        return HEADER_SIZE + (getSymbolCount() * SYMBOL_BITS + 7) / 8;
     }
 
     @Override
     public final String toString() {
-        return "" + blocksize + ":" + left + ":" +  right;
+        char[] chars = new char[getSymbolCount() + 2 + 10];
+        String size = Integer.toString(blocksize);
+        int position = 0;
+        for (int i = 0; i < size.length(); i++) {
+            chars[position++] = size.charAt(i);
+        }
+
+        chars[position++] = ':';
+        for (int i = 0; i < left_length; i++) {
+            chars[position++] = SpamSum.B64[getSymbol(i)];
+        }
+
+        chars[position++] = ':';
+        for (int i = left_length; i < getSymbolCount(); i++) {
+            chars[position++] = SpamSum.B64[getSymbol(i)];
+        }
+        return new String(chars, 0, position);
     }
 
     /**
@@ -58,7 +356,7 @@ public class Signature {
      * @return left part of the signature
      */
     public final String getLeft() {
-        return left;
+        return partToString(0, left_length);
     }
 
     /**
@@ -66,15 +364,75 @@ public class Signature {
      * @return right part of the signature
      */
     public final String getRight() {
-        return right;
+        return partToString(left_length, left_length + right_length);
+    }
+
+    /**
+     *
+     * @return number of characters of the left part of the signature
+     */
+    public final int getLeftLength() {
+        return left_length;
+    }
+
+    /**
+     *
+     * @return number of characters of the right part of the signature
+     */
+    public final int getRightLength() {
+        return right_length;
+    }
+
+    /**
+     * Symbols of the left part (0 .. left length - 1) are followed by the
+     * symbols of the right part.
+     *
+     * @param index
+     * @return the index of the character in the Base64 alphabet (0 - 63)
+     */
+    final int getSymbol(final int index) {
+        long word = symbols[index / SYMBOLS_PER_WORD];
+        return (int) (word >>> (SYMBOL_BITS * (index % SYMBOLS_PER_WORD)))
+                & SYMBOL_MASK;
+    }
+
+    final int getSymbolCount() {
+        return left_length + right_length;
+    }
+
+    private void setSymbol(final int index, final int symbol) {
+        symbols[index / SYMBOLS_PER_WORD] |=
+                ((long) symbol) << (SYMBOL_BITS * (index % SYMBOLS_PER_WORD));
+    }
+
+    private String partToString(final int from, final int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = SpamSum.B64[getSymbol(i)];
+        }
+        return new String(chars);
+    }
+
+    private static int symbolOf(final char c) {
+        if (c >= B64_INDEX.length || B64_INDEX[c] < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid character in signature: " + c);
+        }
+        return B64_INDEX[c];
+    }
+
+    private static IllegalArgumentException invalid(
+            final CharSequence chars, final int start, final int end) {
+        return new IllegalArgumentException(
+                "Invalid signature: " + chars.subSequence(start, end));
     }
 
     @Override
     public final int hashCode() {
         int hash = 5;
         hash = 83 * hash + this.blocksize;
-        hash = 83 * hash + (this.left != null ? this.left.hashCode() : 0);
-        hash = 83 * hash + (this.right != null ? this.right.hashCode() : 0);
+        hash = 83 * hash + this.left_length;
+        hash = 83 * hash + Arrays.hashCode(this.symbols);
         return hash;
     }
 
@@ -90,14 +448,10 @@ public class Signature {
         if (this.blocksize != other.blocksize) {
             return false;
         }
-        if ((this.left == null) ? (other.left != null) : !this.left.equals(other.left)) {
+        if (this.left_length != other.left_length
+                || this.right_length != other.right_length) {
             return false;
         }
-        if ((this.right == null) ? (other.right != null) : !this.right.equals(other.right)) {
-            return false;
-        }
-        return true;
+        return Arrays.equals(this.symbols, other.symbols);
     }
-
-
 }
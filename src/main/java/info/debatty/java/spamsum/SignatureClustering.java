@@ -0,0 +1,382 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Compare all signatures of a list with each other, in parallel (like
+ * ssdeep -d and -x).
+ *
+ * Two signatures can only get a score higher than 0 if they have the same
+ * block size, or if the block size of one is twice the block size of the
+ * other. Hence signatures are grouped by block size, and each group is only
+ * compared with itself and with the group that has twice its block size.
+ * Rows of the comparison are split between the threads of a ForkJoinPool.
+ *
+ * @author Thibault Debatty
+ */
+public class SignatureClustering {
+
+    // number of rows below which a task is not split anymore
+    private static final int LEAF_ROWS = 16;
+
+    private final SpamSum spamsum = new SpamSum();
+    private final ForkJoinPool pool;
+
+    /**
+     * Use the common ForkJoinPool.
+     */
+    public SignatureClustering() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     * @param pool the pool used to compare signatures
+     */
+    public SignatureClustering(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Find all pairs of signatures that have a score of at least min_score.
+     * Pairs with a score of 0 are never returned.
+     *
+     * @param signatures
+     * @param min_score
+     * @return the matching pairs, by decreasing score
+     */
+    public final List<Pair> pairs(
+            final List<Signature> signatures, final int min_score) {
+
+        List<Pair> pairs = computePairs(signatures, min_score);
+        Collections.sort(pairs, new Comparator<Pair>() {
+            @Override
+            public int compare(final Pair p1, final Pair p2) {
+                if (p1.score != p2.score) {
+                    return p2.score - p1.score;
+                }
+                if (p1.first_index != p2.first_index) {
+                    return p1.first_index - p2.first_index;
+                }
+                return p1.second_index - p2.second_index;
+            }
+        });
+        return pairs;
+    }
+
+    /**
+     * Group signatures that are linked by a chain of pairs with a score of
+     * at least min_score (connected components). Signatures that match no
+     * other signature are not returned.
+     *
+     * @param signatures
+     * @param min_score
+     * @return the clusters, each one in the order of the input list
+     */
+    public final List<List<Signature>> clusters(
+            final List<Signature> signatures, final int min_score) {
+
+        int count = signatures.size();
+        int[] parents = new int[count];
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+            sizes[i] = 1;
+        }
+
+        for (Pair pair : computePairs(signatures, min_score)) {
+            int root1 = find(parents, pair.first_index);
+            int root2 = find(parents, pair.second_index);
+            if (root1 == root2) {
+                continue;
+            }
+            if (sizes[root1] < sizes[root2]) {
+                int tmp = root1;
+                root1 = root2;
+                root2 = tmp;
+            }
+            parents[root2] = root1;
+            sizes[root1] += sizes[root2];
+        }
+
+        // clusters are ordered by their first signature
+        List<List<Signature>> clusters = new ArrayList<List<Signature>>();
+        int[] cluster_of_root = new int[count];
+        Arrays.fill(cluster_of_root, -1);
+        for (int i = 0; i < count; i++) {
+            int root = find(parents, i);
+            if (sizes[root] < 2) {
+                continue;
+            }
+            if (cluster_of_root[root] == -1) {
+                cluster_of_root[root] = clusters.size();
+                clusters.add(new ArrayList<Signature>(sizes[root]));
+            }
+            clusters.get(cluster_of_root[root]).add(signatures.get(i));
+        }
+        return clusters;
+    }
+
+    private static int find(final int[] parents, final int node) {
+        int i = node;
+        while (parents[i] != i) {
+            // path halving
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private List<Pair> computePairs(
+            final List<Signature> signatures, final int min_score) {
+
+        final int count = signatures.size();
+        if (count < 2) {
+            return new ArrayList<Pair>();
+        }
+
+        // sort by block size
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer i1, final Integer i2) {
+                return Long.compare(
+                        signatures.get(i1).getBlockSize(),
+                        signatures.get(i2).getBlockSize());
+            }
+        });
+
+        int[] indexes = new int[count];
+        PreparedSignature[] prepared = new PreparedSignature[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = order[i];
+            prepared[i] = new PreparedSignature(signatures.get(order[i]));
+        }
+
+        // for each row: end of its group, and range of the group with
+        // twice its block size
+        int[] group_end = new int[count];
+        int[] double_start = new int[count];
+        int[] double_end = new int[count];
+        int start = 0;
+        int next = 0;
+        while (start < count) {
+            int blocksize = prepared[start].getBlockSize();
+            int end = start;
+            while (end < count && prepared[end].getBlockSize() == blocksize) {
+                end++;
+            }
+
+            next = Math.max(next, end);
+            while (next < count
+                    && prepared[next].getBlockSize() < 2L * blocksize) {
+                next++;
+            }
+            int next_end = next;
+            while (next_end < count
+                    && prepared[next_end].getBlockSize() == 2L * blocksize) {
+                next_end++;
+            }
+
+            for (int i = start; i < end; i++) {
+                group_end[i] = end;
+                double_start[i] = next;
+                double_end[i] = next_end;
+            }
+            start = end;
+        }
+
+        Rows task = new Rows(
+                prepared, indexes, group_end, double_start, double_end,
+                min_score, 0, count);
+        return pool.invoke(task);
+    }
+
+    /**
+     * Compare the signatures of rows [from, to[ with the signatures of the
+     * same group that come after them, and with the signatures of the group
+     * that has twice their block size.
+     */
+    private class Rows extends RecursiveTask<List<Pair>> {
+        private static final long serialVersionUID = 1L;
+
+        private final PreparedSignature[] prepared;
+        private final int[] indexes;
+        private final int[] group_end;
+        private final int[] double_start;
+        private final int[] double_end;
+        private final int min_score;
+        private final int from;
+        private final int to;
+
+        Rows(
+                final PreparedSignature[] prepared,
+                final int[] indexes,
+                final int[] group_end,
+                final int[] double_start,
+                final int[] double_end,
+                final int min_score,
+                final int from,
+                final int to) {
+
+            this.prepared = prepared;
+            this.indexes = indexes;
+            this.group_end = group_end;
+            this.double_start = double_start;
+            this.double_end = double_end;
+            this.min_score = min_score;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Pair> compute() {
+            if (to - from <= LEAF_ROWS) {
+                List<Pair> pairs = new ArrayList<Pair>();
+                for (int i = from; i < to; i++) {
+                    compare(i, i + 1, group_end[i], pairs);
+                    compare(i, double_start[i], double_end[i], pairs);
+                }
+                return pairs;
+            }
+
+            int middle = (from + to) >>> 1;
+            Rows left = new Rows(
+                    prepared, indexes, group_end, double_start, double_end,
+                    min_score, from, middle);
+            Rows right = new Rows(
+                    prepared, indexes, group_end, double_start, double_end,
+                    min_score, middle, to);
+            left.fork();
+            List<Pair> pairs = right.compute();
+            pairs.addAll(left.join());
+            return pairs;
+        }
+
+        private void compare(
+                final int row, final int start, final int end,
+                final List<Pair> pairs) {
+
+            for (int j = start; j < end; j++) {
+                int score = spamsum.match(prepared[row], prepared[j]);
+                if (score > 0 && score >= min_score) {
+                    pairs.add(new Pair(
+                            prepared[row].getSignature(),
+                            indexes[row],
+                            prepared[j].getSignature(),
+                            indexes[j],
+                            score));
+                }
+            }
+        }
+    }
+
+    /**
+     * Two signatures that match, with their score. The first signature is
+     * the one that comes first in the input list.
+     */
+    public static final class Pair {
+        private final Signature first;
+        private final int first_index;
+        private final Signature second;
+        private final int second_index;
+        private final int score;
+
+        Pair(
+                final Signature sig1, final int index1,
+                final Signature sig2, final int index2,
+                final int score) {
+
+            if (index1 < index2) {
+                this.first = sig1;
+                this.first_index = index1;
+                this.second = sig2;
+                this.second_index = index2;
+            } else {
+                this.first = sig2;
+                this.first_index = index2;
+                this.second = sig1;
+                this.second_index = index1;
+            }
+            this.score = score;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public Signature getFirst() {
+            return first;
+        }
+
+        /**
+         *
+         * @return position of the first signature in the input list
+         */
+        public int getFirstIndex() {
+            return first_index;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public Signature getSecond() {
+            return second;
+        }
+
+        /**
+         *
+         * @return position of the second signature in the input list
+         */
+        public int getSecondIndex() {
+            return second_index;
+        }
+
+        /**
+         *
+         * @return score between the two signatures (0 - 100)
+         */
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return first + " matches " + second + " (" + score + ")";
+        }
+    }
+}
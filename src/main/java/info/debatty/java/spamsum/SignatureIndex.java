@@ -0,0 +1,390 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of signatures, to quickly find the signatures that are similar
+ * to a query.
+ *
+ * Two signatures can only get a score higher than 0 if the blocks that are
+ * compared have a common substring of ROLLING_WINDOW (7) characters. Hence
+ * each block is indexed using all its substrings of 7 characters (7-grams),
+ * and the block size at which it is compared (block size for the first
+ * block, twice the block size for the second block). When searching, only
+ * the signatures that share a 7-gram with the query, for a compatible block
+ * size, are scored.
+ *
+ * Signatures can be added and removed at any time. Multiple threads can
+ * search the index concurrently.
+ *
+ * @author Thibault Debatty
+ */
+public class SignatureIndex {
+
+    // 7 characters of 7 bits
+    private static final int GRAM_BITS = 7;
+    private static final long GRAM_MASK =
+            (1L << (GRAM_BITS * SpamSum.ROLLING_WINDOW)) - 1;
+    private static final int ASCII = 128;
+
+    private final SpamSum spamsum = new SpamSum();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // block size => 7-gram => ids of signatures (first element is the size)
+    private final Map<Integer, Map<Long, int[]>> postings =
+            new HashMap<Integer, Map<Long, int[]>>();
+
+    private final List<PreparedSignature> signatures =
+            new ArrayList<PreparedSignature>();
+    private final Map<Signature, Integer> ids = new HashMap<Signature, Integer>();
+    private final List<Integer> free_ids = new ArrayList<Integer>();
+
+    /**
+     * Add a signature to the index.
+     * @param signature
+     * @return false if the signature was already in the index
+     */
+    public final boolean add(final Signature signature) {
+        lock.writeLock().lock();
+        try {
+            return addSignature(signature);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a lot of signatures at once (e.g. a list read by HashListReader).
+     * The index is locked only once.
+     * @param signatures
+     * @return number of signatures that were not already in the index
+     */
+    public final int addAll(final Collection<Signature> signatures) {
+        lock.writeLock().lock();
+        try {
+            int added = 0;
+            for (Signature signature : signatures) {
+                if (addSignature(signature)) {
+                    added++;
+                }
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean addSignature(final Signature signature) {
+        if (ids.containsKey(signature)) {
+            return false;
+        }
+
+        PreparedSignature prepared = new PreparedSignature(signature);
+        int id;
+        if (free_ids.isEmpty()) {
+            id = signatures.size();
+            signatures.add(prepared);
+        } else {
+            id = free_ids.remove(free_ids.size() - 1);
+            signatures.set(id, prepared);
+        }
+        ids.put(signature, id);
+
+        int blocksize = prepared.getBlockSize();
+        addBlock(id, prepared.getFirst(), blocksize);
+        addBlock(id, prepared.getSecond(), 2 * blocksize);
+        return true;
+    }
+
+    /**
+     * Remove a signature from the index.
+     * @param signature
+     * @return false if the signature was not in the index
+     */
+    public final boolean remove(final Signature signature) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(signature);
+            if (id == null) {
+                return false;
+            }
+
+            PreparedSignature prepared = signatures.get(id);
+            int blocksize = prepared.getBlockSize();
+            removeBlock(id, prepared.getFirst(), blocksize);
+            removeBlock(id, prepared.getSecond(), 2 * blocksize);
+
+            signatures.set(id, null);
+            free_ids.add(id);
+            return true;
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @param signature
+     * @return true if the index contains this signature
+     */
+    public final boolean contains(final Signature signature) {
+        lock.readLock().lock();
+        try {
+            return ids.containsKey(signature);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @return number of signatures in the index
+     */
+    public final int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the signatures of the index that have a score of at least
+     * min_score with the query. Signatures with a score of 0 are never
+     * returned.
+     *
+     * @param query
+     * @param min_score
+     * @return the matching signatures, by decreasing score
+     */
+    public final List<Result> search(
+            final Signature query, final int min_score) {
+
+        PreparedSignature prepared = new PreparedSignature(query);
+        int blocksize = prepared.getBlockSize();
+        List<Result> results = new ArrayList<Result>();
+
+        lock.readLock().lock();
+        try {
+            BitSet scored = new BitSet(signatures.size());
+            searchBlock(prepared, prepared.getFirst(), blocksize,
+                    min_score, scored, results);
+            searchBlock(prepared, prepared.getSecond(), 2 * blocksize,
+                    min_score, scored, results);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(final Result r1, final Result r2) {
+                return r2.score - r1.score;
+            }
+        });
+        return results;
+    }
+
+    private void searchBlock(
+            final PreparedSignature query,
+            final char[] block,
+            final int blocksize,
+            final int min_score,
+            final BitSet scored,
+            final List<Result> results) {
+
+        Map<Long, int[]> grams = postings.get(blocksize);
+        if (grams == null || !indexable(block)) {
+            return;
+        }
+
+        long gram = 0;
+        for (int i = 0; i < block.length; i++) {
+            gram = ((gram << GRAM_BITS) | block[i]) & GRAM_MASK;
+            if (i < SpamSum.ROLLING_WINDOW - 1) {
+                continue;
+            }
+
+            int[] posting = grams.get(gram);
+            if (posting == null) {
+                continue;
+            }
+
+            for (int j = 1; j <= posting[0]; j++) {
+                int id = posting[j];
+                if (scored.get(id)) {
+                    continue;
+                }
+                scored.set(id);
+
+                PreparedSignature candidate = signatures.get(id);
+                if (SpamSum.matchBound(query, candidate) < min_score) {
+                    continue;
+                }
+
+                int score = spamsum.match(query, candidate);
+                if (score > 0 && score >= min_score) {
+                    results.add(
+                            new Result(candidate.getSignature(), score));
+                }
+            }
+        }
+    }
+
+    private void addBlock(final int id, final char[] block, final int blocksize) {
+        if (!indexable(block)) {
+            return;
+        }
+
+        Map<Long, int[]> grams = postings.get(blocksize);
+        if (grams == null) {
+            grams = new HashMap<Long, int[]>();
+            postings.put(blocksize, grams);
+        }
+
+        long gram = 0;
+        for (int i = 0; i < block.length; i++) {
+            gram = ((gram << GRAM_BITS) | block[i]) & GRAM_MASK;
+            if (i < SpamSum.ROLLING_WINDOW - 1) {
+                continue;
+            }
+
+            int[] posting = grams.get(gram);
+            if (posting == null) {
+                posting = new int[4];
+            } else if (posting[posting[0]] == id) {
+                // the same 7-gram appears twice in this block
+                continue;
+            } else if (posting[0] == posting.length - 1) {
+                int[] larger = new int[posting.length * 2];
+                System.arraycopy(posting, 0, larger, 0, posting.length);
+                posting = larger;
+            }
+            posting[0]++;
+            posting[posting[0]] = id;
+            grams.put(gram, posting);
+        }
+    }
+
+    private void removeBlock(
+            final int id, final char[] block, final int blocksize) {
+        Map<Long, int[]> grams = postings.get(blocksize);
+        if (grams == null || !indexable(block)) {
+            return;
+        }
+
+        long gram = 0;
+        for (int i = 0; i < block.length; i++) {
+            gram = ((gram << GRAM_BITS) | block[i]) & GRAM_MASK;
+            if (i < SpamSum.ROLLING_WINDOW - 1) {
+                continue;
+            }
+
+            int[] posting = grams.get(gram);
+            if (posting == null) {
+                continue;
+            }
+
+            for (int j = 1; j <= posting[0]; j++) {
+                if (posting[j] == id) {
+                    posting[j] = posting[posting[0]];
+                    posting[0]--;
+                    break;
+                }
+            }
+
+            if (posting[0] == 0) {
+                grams.remove(gram);
+            }
+        }
+
+        if (grams.isEmpty()) {
+            postings.remove(blocksize);
+        }
+    }
+
+    /**
+     * Blocks longer than SPAMSUM_LENGTH always get a score of 0, hence they
+     * are not indexed. Signatures only contain ASCII characters.
+     */
+    private static boolean indexable(final char[] block) {
+        if (block.length > SpamSum.SPAMSUM_LENGTH) {
+            return false;
+        }
+        for (char c : block) {
+            if (c >= ASCII) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A signature found in the index, with its score.
+     */
+    public static final class Result {
+        private final Signature signature;
+        private final int score;
+
+        Result(final Signature signature, final int score) {
+            this.signature = signature;
+            this.score = score;
+        }
+
+        /**
+         *
+         * @return the signature found in the index
+         */
+        public Signature getSignature() {
+            return signature;
+        }
+
+        /**
+         *
+         * @return score between the query and this signature (0 - 100)
+         */
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return signature + " (" + score + ")";
+        }
+    }
+}
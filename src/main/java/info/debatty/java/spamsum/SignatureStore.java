@@ -0,0 +1,663 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A read-only database of signatures, stored in a file that is mapped in
+ * memory. Opening a store does not read the signatures, the heap used by
+ * a store does not depend on the number of signatures, and the pages of
+ * the file are shared by all processes that open the same store.
+ *
+ * Signatures are grouped by block size (partitions), so a search only
+ * reads the partitions that have a compatible block size. Each partition
+ * is stored as fixed-width columns:
+ * <pre>
+ * lengths     2 bytes    length of the first (abc:def) and second (:def)
+ *                        blocks of the PreparedSignature
+ * blocks      128 bytes  characters of the first block, and of the second
+ *                        block without its ':' (64 bytes each, ASCII)
+ * signatures  102 bytes  the original signature, in the binary format of
+ *                        Signature.writeTo()
+ * ids         8 bytes    position of the signature in the input of the
+ *                        Writer
+ * </pre>
+ *
+ * Blocks longer than MAX_LENGTH always get a score of 0, hence only their
+ * length is stored.
+ *
+ * When searching, the lengths column is used to compute an upper bound of
+ * the score, and the blocks of the remaining candidates are copied from
+ * the mapped file to reusable buffers, that are compared directly by the
+ * match kernel. Hence no object is created, except for the results.
+ *
+ * A store is created with a Writer, which only keeps a counter per block
+ * size in memory. The store is built in a temporary file, that atomically
+ * replaces the previous store when the Writer is committed. Hence the
+ * processes that map the previous store are not affected, and a Writer
+ * that is closed without commit (e.g. because of an exception) leaves the
+ * previous store untouched:
+ * <pre>
+ * try (SignatureStore.Writer writer = new SignatureStore.Writer(path)) {
+ *     writer.add(signature);
+ *     ...
+ *     writer.commit();
+ * }
+ * SignatureStore store = SignatureStore.open(path);
+ * List&lt;SignatureStore.Result&gt; results = store.search(query, 50);
+ * </pre>
+ *
+ * A store can be searched by multiple threads concurrently.
+ *
+ * @author Thibault Debatty
+ */
+public final class SignatureStore {
+
+    private static final int MAGIC = 0x53534453;
+    private static final int VERSION = 2;
+
+    // magic, version, number of signatures, number of partitions
+    private static final int HEADER_SIZE = 20;
+
+    // block size, first signature, number of signatures
+    private static final int PARTITION_SIZE = 20;
+
+    private static final int MAX_LENGTH = Signature.MAX_LENGTH;
+    private static final int LENGTHS_WIDTH = 2;
+    private static final int BLOCKS_WIDTH = 2 * MAX_LENGTH;
+    private static final int SIGNATURE_WIDTH =
+            6 + (2 * MAX_LENGTH * 6 + 7) / 8;
+    private static final int ID_WIDTH = 8;
+
+    // a single buffer cannot map more than 2GB
+    private static final int MAP_WINDOW = 1 << 30;
+
+    private final long size;
+    private final int[] blocksizes;
+    private final long[] starts;
+    private final long[] counts;
+
+    private final Column lengths;
+    private final Column blocks;
+    private final Column signatures;
+    private final Column ids;
+
+    private SignatureStore(
+            final long size,
+            final int[] blocksizes,
+            final long[] starts,
+            final long[] counts,
+            final Column lengths,
+            final Column blocks,
+            final Column signatures,
+            final Column ids) {
+
+        this.size = size;
+        this.blocksizes = blocksizes;
+        this.starts = starts;
+        this.counts = counts;
+        this.lengths = lengths;
+        this.blocks = blocks;
+        this.signatures = signatures;
+        this.ids = ids;
+    }
+
+    /**
+     * Map a store created by a Writer.
+     *
+     * @param path
+     * @return the store
+     * @throws IOException if the file cannot be read, or is not a valid
+     * store
+     */
+    public static SignatureStore open(final Path path) throws IOException {
+        try (FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ)) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a signature store: " + path);
+            }
+            long size = header.getLong();
+            int partitions = header.getInt();
+            if (size < 0 || partitions < 0
+                    || partitions > Integer.MAX_VALUE / PARTITION_SIZE) {
+                throw new IOException("Invalid signature store: " + path);
+            }
+
+            ByteBuffer table = ByteBuffer.allocate(partitions * PARTITION_SIZE);
+            readFully(channel, table, HEADER_SIZE);
+            int[] blocksizes = new int[partitions];
+            long[] starts = new long[partitions];
+            long[] counts = new long[partitions];
+            for (int i = 0; i < partitions; i++) {
+                blocksizes[i] = table.getInt();
+                starts[i] = table.getLong();
+                counts[i] = table.getLong();
+            }
+
+            long offset = HEADER_SIZE + (long) partitions * PARTITION_SIZE;
+            if (channel.size() != offset + size * recordWidth()) {
+                throw new IOException("Truncated signature store: " + path);
+            }
+
+            FileChannel.MapMode mode = FileChannel.MapMode.READ_ONLY;
+            Column lengths = new Column(
+                    channel, mode, offset, size, LENGTHS_WIDTH);
+            offset += size * LENGTHS_WIDTH;
+            Column blocks = new Column(
+                    channel, mode, offset, size, BLOCKS_WIDTH);
+            offset += size * BLOCKS_WIDTH;
+            Column signatures = new Column(
+                    channel, mode, offset, size, SIGNATURE_WIDTH);
+            offset += size * SIGNATURE_WIDTH;
+            Column ids = new Column(channel, mode, offset, size, ID_WIDTH);
+
+            // the mapping remains valid after the channel is closed
+            return new SignatureStore(
+                    size, blocksizes, starts, counts,
+                    lengths, blocks, signatures, ids);
+        }
+    }
+
+    /**
+     *
+     * @return number of signatures in the store
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Find the signatures of the store that have a score of at least
+     * min_score with the query. Signatures with a score of 0 are never
+     * returned.
+     *
+     * @param query
+     * @param min_score
+     * @return the matching signatures, by decreasing score (ties are
+     * ordered by id)
+     */
+    public List<Result> search(final Signature query, final int min_score) {
+        PreparedSignature prepared = new PreparedSignature(query);
+        int blocksize = prepared.getBlockSize();
+
+        // blocks of the current candidate
+        char[] first = new char[MAX_LENGTH];
+        char[] second = new char[MAX_LENGTH];
+        List<Result> results = new ArrayList<Result>();
+
+        if (blocksize % 2 == 0) {
+            searchPartition(prepared, blocksize / 2, min_score,
+                    first, second, results);
+        }
+        searchPartition(prepared, blocksize, min_score,
+                first, second, results);
+        if (blocksize <= Integer.MAX_VALUE / 2) {
+            searchPartition(prepared, 2 * blocksize, min_score,
+                    first, second, results);
+        }
+
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(final Result r1, final Result r2) {
+                if (r1.score != r2.score) {
+                    return r2.score - r1.score;
+                }
+                return Long.compare(r1.id, r2.id);
+            }
+        });
+        return results;
+    }
+
+    private void searchPartition(
+            final PreparedSignature query,
+            final int blocksize,
+            final int min_score,
+            final char[] first,
+            final char[] second,
+            final List<Result> results) {
+
+        int partition = Arrays.binarySearch(blocksizes, blocksize);
+        if (partition < 0) {
+            return;
+        }
+
+        // like SpamSum.match(), scores are notified to the listener
+        SpamSumListener listener = SpamSum.getListener();
+
+        long end = starts[partition] + counts[partition];
+        for (long i = starts[partition]; i < end; i++) {
+            ByteBuffer buffer = lengths.window(i);
+            int position = lengths.position(i);
+            int first_length = buffer.get(position) & 0xFF;
+            int second_length = buffer.get(position + 1) & 0xFF;
+
+            int bound = SpamSum.matchBound(
+                    query, blocksize, first_length, second_length);
+            if (bound == 0 || bound < min_score) {
+                continue;
+            }
+
+            buffer = blocks.window(i);
+            position = blocks.position(i);
+            if (first_length <= MAX_LENGTH) {
+                for (int k = 0; k < first_length; k++) {
+                    first[k] = (char) buffer.get(position + k);
+                }
+            }
+            if (second_length <= MAX_LENGTH) {
+                second[0] = ':';
+                position += MAX_LENGTH;
+                for (int k = 1; k < second_length; k++) {
+                    second[k] = (char) buffer.get(position + k - 1);
+                }
+            }
+
+            long start = listener != null ? System.nanoTime() : 0;
+            int score = SpamSum.compare(
+                    query, blocksize,
+                    first, first_length, second, second_length);
+            if (listener != null) {
+                listener.scored(score, System.nanoTime() - start);
+            }
+            if (score > 0 && score >= min_score) {
+                results.add(new Result(readSignature(i), readId(i), score));
+            }
+        }
+    }
+
+    private Signature readSignature(final long index) {
+        ByteBuffer buffer = signatures.window(index).duplicate();
+        buffer.position(signatures.position(index));
+        return Signature.readFrom(buffer);
+    }
+
+    private long readId(final long index) {
+        return ids.window(index).getLong(ids.position(index));
+    }
+
+    private static long recordWidth() {
+        return LENGTHS_WIDTH + BLOCKS_WIDTH + SIGNATURE_WIDTH + ID_WIDTH;
+    }
+
+    private static void readFully(
+            final FileChannel channel,
+            final ByteBuffer buffer,
+            final long position) throws IOException {
+
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, offset);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            offset += count;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * A column of fixed-width values, mapped in one or more buffers. Each
+     * buffer contains a whole number of values.
+     */
+    private static final class Column {
+        private final ByteBuffer[] windows;
+        private final int width;
+        private final long per_window;
+
+        Column(
+                final FileChannel channel,
+                final FileChannel.MapMode mode,
+                final long offset,
+                final long count,
+                final int width) throws IOException {
+
+            this.width = width;
+            this.per_window = MAP_WINDOW / width;
+            int count_windows = (int) ((count + per_window - 1) / per_window);
+            this.windows = new ByteBuffer[count_windows];
+            for (int i = 0; i < windows.length; i++) {
+                long first = i * per_window;
+                long values = Math.min(per_window, count - first);
+                windows[i] = channel.map(
+                        mode, offset + first * width, values * width);
+            }
+        }
+
+        ByteBuffer window(final long index) {
+            return windows[(int) (index / per_window)];
+        }
+
+        int position(final long index) {
+            return (int) (index % per_window) * width;
+        }
+
+        void force() {
+            for (ByteBuffer window : windows) {
+                ((MappedByteBuffer) window).force();
+            }
+        }
+    }
+
+    /**
+     * A signature found in the store, with its score.
+     */
+    public static final class Result {
+        private final Signature signature;
+        private final long id;
+        private final int score;
+
+        Result(final Signature signature, final long id, final int score) {
+            this.signature = signature;
+            this.id = id;
+            this.score = score;
+        }
+
+        /**
+         *
+         * @return the signature found in the store
+         */
+        public Signature getSignature() {
+            return signature;
+        }
+
+        /**
+         *
+         * @return position of the signature in the input of the Writer
+         * (0 for the first signature)
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         *
+         * @return score between the query and this signature (0 - 100)
+         */
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return signature + " (" + score + ")";
+        }
+    }
+
+    /**
+     * Create a store. Signatures are first appended to a temporary file,
+     * then close() sorts them by block size (counting sort) and writes the
+     * columns of the store.
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path path;
+        private final Path directory;
+        private final Path tmp;
+        private final DataOutputStream out;
+        private final byte[] row = new byte[SIGNATURE_WIDTH];
+        private final Map<Integer, long[]> counters =
+                new HashMap<Integer, long[]>();
+        private long count = 0;
+        private boolean closed = false;
+        private boolean failed = false;
+
+        /**
+         *
+         * @param path the file of the store (replaced by commit() if it
+         * exists)
+         * @throws IOException if the temporary file cannot be created
+         */
+        public Writer(final Path path) throws IOException {
+            this.path = path;
+            this.directory = path.toAbsolutePath().getParent();
+            this.tmp = Files.createTempFile(
+                    directory, path.getFileName().toString(), ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp)));
+        }
+
+        /**
+         * Add a signature. Its id is the number of signatures added before
+         * it.
+         *
+         * @param signature
+         * @throws IOException if an I/O error occurs
+         */
+        public void add(final Signature signature) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+
+            Arrays.fill(row, (byte) 0);
+            signature.writeTo(ByteBuffer.wrap(row));
+            try {
+                out.write(row);
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+
+            Integer blocksize = (int) signature.getBlockSize();
+            long[] counter = counters.get(blocksize);
+            if (counter == null) {
+                counter = new long[1];
+                counters.put(blocksize, counter);
+            }
+            counter[0]++;
+            count++;
+        }
+
+        /**
+         * Write the store in a temporary file, and atomically move it to
+         * the path of the store. The Writer is closed.
+         *
+         * @throws IOException if an I/O error occurs (the previous store, if
+         * any, is left untouched)
+         */
+        public void commit() throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            if (failed) {
+                throw new IllegalStateException(
+                        "A signature could not be added");
+            }
+            closed = true;
+
+            Path store = null;
+            try {
+                out.close();
+                store = Files.createTempFile(
+                        directory, path.getFileName().toString(), ".new");
+                write(store);
+                Files.move(store, path,
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                store = null;
+
+            } finally {
+                if (store != null) {
+                    Files.deleteIfExists(store);
+                }
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        /**
+         * Delete the temporary file. If commit() was not called, the store
+         * is not written (and the previous store, if any, is left
+         * untouched).
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private void write(final Path store) throws IOException {
+            // partitions, by increasing block size
+            TreeMap<Integer, long[]> sorted =
+                    new TreeMap<Integer, long[]>(counters);
+            int partitions = sorted.size();
+            Map<Integer, long[]> next = new HashMap<Integer, long[]>();
+            ByteBuffer header = ByteBuffer.allocate(
+                    HEADER_SIZE + partitions * PARTITION_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(count);
+            header.putInt(partitions);
+            long start = 0;
+            for (Map.Entry<Integer, long[]> entry : sorted.entrySet()) {
+                header.putInt(entry.getKey());
+                header.putLong(start);
+                header.putLong(entry.getValue()[0]);
+                next.put(entry.getKey(), new long[] {start});
+                start += entry.getValue()[0];
+            }
+            header.flip();
+
+            try (FileChannel channel = FileChannel.open(
+                    store,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+
+                FileChannel.MapMode mode = FileChannel.MapMode.READ_WRITE;
+                long offset = HEADER_SIZE + (long) partitions * PARTITION_SIZE;
+                Column lengths = new Column(
+                        channel, mode, offset, count, LENGTHS_WIDTH);
+                offset += count * LENGTHS_WIDTH;
+                Column blocks = new Column(
+                        channel, mode, offset, count, BLOCKS_WIDTH);
+                offset += count * BLOCKS_WIDTH;
+                Column signatures = new Column(
+                        channel, mode, offset, count, SIGNATURE_WIDTH);
+                offset += count * SIGNATURE_WIDTH;
+                Column ids = new Column(
+                        channel, mode, offset, count, ID_WIDTH);
+
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(tmp)))) {
+
+                    for (long id = 0; id < count; id++) {
+                        in.readFully(row);
+                        Signature signature =
+                                Signature.readFrom(ByteBuffer.wrap(row));
+                        long index = next.get(
+                                (int) signature.getBlockSize())[0]++;
+
+                        writeBlocks(signature, lengths, blocks, index);
+
+                        ByteBuffer buffer = signatures.window(index);
+                        int position = signatures.position(index);
+                        for (int k = 0; k < SIGNATURE_WIDTH; k++) {
+                            buffer.put(position + k, row[k]);
+                        }
+
+                        ids.window(index).putLong(ids.position(index), id);
+                    }
+                }
+
+                lengths.force();
+                blocks.force();
+                signatures.force();
+                ids.force();
+            }
+        }
+
+        /**
+         * Write the blocks of the signature, exactly as prepared by
+         * PreparedSignature. The characters of a block are only written if
+         * it can get a score higher than 0.
+         */
+        private static void writeBlocks(
+                final Signature signature,
+                final Column lengths,
+                final Column blocks,
+                final long index) {
+
+            PreparedSignature prepared = new PreparedSignature(signature);
+            char[] first = prepared.getFirst();
+            char[] second = prepared.getSecond();
+
+            // at most 64 + 1 + 64 characters
+            ByteBuffer buffer = lengths.window(index);
+            int position = lengths.position(index);
+            buffer.put(position, (byte) first.length);
+            buffer.put(position + 1, (byte) second.length);
+
+            buffer = blocks.window(index);
+            position = blocks.position(index);
+            if (first.length <= MAX_LENGTH) {
+                for (int k = 0; k < first.length; k++) {
+                    buffer.put(position + k, (byte) first[k]);
+                }
+            }
+            if (second.length <= MAX_LENGTH) {
+                for (int k = 1; k < second.length; k++) {
+                    buffer.put(position + MAX_LENGTH + k - 1,
+                            (byte) second[k]);
+                }
+            }
+        }
+    }
+}
@@ -24,7 +24,19 @@
 
 package info.debatty.java.spamsum;
 
-import info.debatty.java.stringsimilarity.Levenshtein;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * A Java implementation of SpamSum / SSDeep / Context Triggered Piecewise
@@ -58,18 +70,94 @@ public class SpamSum {
         System.out.println(s.hashString(s2));
     }
 
-    private static final long HASH_PRIME = 0x01000193;
-    private static final long HASH_INIT = 0x28021967;
-    private static final char[] B64 =
+    static final int HASH_PRIME = 0x01000193;
+    static final int HASH_INIT = 0x28021967;
+    static final char[] B64 =
             "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
                     .toCharArray();
 
-    // The original algorithm works using UINT32 => 2 ^ 32
-    private static final long UINT32 = (long) 2 << 31;
+    static final int MIN_BLOCKSIZE = 3;
+    static final int SPAMSUM_LENGTH = 64;
+    static final int CHARACTERS = 64;
+    static final int ROLLING_WINDOW = 7;
+
+    // files are mapped in memory by chunks of 1GB
+    private static final long MAP_WINDOW = 1 << 30;
+
+    // SpamSum has no state, hence it is thread-safe. Each thread reuses its
+    // own hasher, so hashing does not allocate memory except for the result
+    private static final ThreadLocal<SpamSumHasher> HASHERS =
+            new ThreadLocal<SpamSumHasher>() {
+                @Override
+                protected SpamSumHasher initialValue() {
+                    return new SpamSumHasher();
+                }
+            };
+
+    private static SpamSumHasher hasher(
+            final int bsize, final long expected_length) {
+        SpamSumHasher hasher = HASHERS.get();
+        hasher.reset(bsize, expected_length);
+        return hasher;
+    }
+
+    // optional instrumentation, shared by all instances
+    private static volatile SpamSumListener listener;
+
+    /**
+     * Set the listener that is notified of the signatures computed and of
+     * the signatures compared by all SpamSum objects (e.g. SpamSumMetrics).
+     *
+     * @param listener the listener, or null to disable notifications
+     */
+    public static void setListener(final SpamSumListener listener) {
+        SpamSum.listener = listener;
+    }
 
-    private static final int MIN_BLOCKSIZE = 3;
-    private static final int SPAMSUM_LENGTH = 64;
-    private static final int CHARACTERS = 64;
+    /**
+     *
+     * @return the current listener, or null
+     */
+    public static SpamSumListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Start time of an operation, only read if there is a listener.
+     */
+    static long start() {
+        return listener != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Compute the signature, and notify the listener (if any).
+     */
+    static Signature digest(final SpamSumHasher hasher, final long start) {
+        Signature signature = hasher.digest();
+        hashed(hasher.getLength(), signature, hasher.halvings(signature),
+                start);
+        return signature;
+    }
+
+    /**
+     * Notify the listener (if any) that a signature was computed (e.g. by
+     * ParallelHasher or BatchHasher).
+     */
+    static void hashed(
+            final long length,
+            final Signature signature,
+            final int halvings,
+            final long start) {
+
+        SpamSumListener current = listener;
+        if (current != null) {
+            current.hashed(
+                    length,
+                    signature.getBlockSize(),
+                    halvings,
+                    System.nanoTime() - start);
+        }
+    }
 
     /**
      * Computes and returns the spamsum signature of this string.
@@ -86,161 +174,153 @@ public class SpamSum {
     /**
      * Computes and returns the spamsum signature of this string.
      * E.g. : 3:hMCEqNE0M+YFFWV5wdgHMyA8FNzs1b:hujkYFFWV51HM8Lzs1b
+     * The string is encoded using UTF-8.
      *
      * @param string
      * @param bsize block size; if 0, the block size is automatically computed
      * @return spamsum signature
      */
     public final Signature hashString(final String string, final int bsize) {
-        byte[] in = string.getBytes(); // = StandardCharsets.UTF_8
-        int length = in.length;
-
-        int blocksize = bsize;
-        if (bsize == 0) {
-            /* guess a reasonable block size */
-            blocksize = MIN_BLOCKSIZE;
-            while (blocksize * SPAMSUM_LENGTH < length) {
-                blocksize = blocksize * 2;
-            }
-        }
-
-        char[] left;
-        char[] right;
-
-        while (true) {
-
-            left = new char[SPAMSUM_LENGTH];
-            right = new char[SPAMSUM_LENGTH];
-
-            int k = 0;
-            int j = 0;
-            long h3 = HASH_INIT;
-            long h2 = HASH_INIT;
-            long h = rollingHashReset();
-
-            for (int i = 0; i < length; i++) {
-
-                // at each character we update the rolling hash and the normal
-                // hash. When the rolling hash hits the reset value then we emit
-                // the normal hash as a element of the signature and reset both
-                // hashes
-                int character = (in[i] + 256) % 256;
-                h = rollingHash(character);
-                h2 = sumHash(character, h2);
-                h3 = sumHash(character, h3);
-
-                if (h % blocksize == (blocksize - 1)) {
-
-                    // we have hit a reset polong. We now emit a hash which is
-                    // based on all chacaters in the piece of the string between
-                    // the last reset polong and this one
-                    left[j] = B64[(int) (h2 % CHARACTERS)];
-                    if (j < SPAMSUM_LENGTH - 1) {
-
-                        // we can have a problem with the tail overflowing. The
-                        // easiest way to cope with this is to only reset the
-                        // second hash if we have room for more characters in
-                        // our signature. This has the effect of combining the
-                        // last few pieces of the message longo a single piece
-                        h2 = HASH_INIT;
-                        j++;
-                    }
-                }
-
-                // this produces a second signature with a block size of
-                // block_size*2. By producing dual signatures in this way the
-                // effect of small changes in the string near a block size
-                // boundary is greatly reduced.
-                if (h % (blocksize * 2) == ((blocksize * 2) - 1)) {
-                    right[k] = B64[(int) (h3 % CHARACTERS)];
-                    if (k < SPAMSUM_LENGTH / 2 - 1) {
-                        h3 = HASH_INIT;
-                        k++;
-                    }
-                }
-            }
-
-            // If we have anything left then add it to the end. This ensures
-            // that the last part of the string is always considered
-            if (h != 0) {
-                left[j] = B64[(int) (h2 % CHARACTERS)];
-                right[k] = B64[(int) (h3 % CHARACTERS)];
-            }
-
-            // blocksize guess may have been way off - repeat, except if:
-            // - blocksize was manually specified
-            // - current blocksize is already too small
-            // - dividing by 2 would produce a hash too small...
-
-            if (
-                    bsize != 0
-                    || blocksize <= MIN_BLOCKSIZE
-                    || j >= SPAMSUM_LENGTH / 2) {
-                break;
-            } else {
-                blocksize = blocksize / 2;
-                // loop...
-            }
-        }
-
-        return new Signature(
-                String.valueOf(left).trim(),
-                String.valueOf(right).trim(),
-                blocksize);
+        return hash(string, bsize);
     }
 
     /**
-     * A simple non-rolling hash, based on the FNV hash.
-     * http://en.wikipedia.org/wiki/Fowler%E2%80%93Noll%E2%80%93Vo_hash_function
+     * Computes and returns the spamsum signature of this sequence of
+     * characters (String, StringBuilder, CharBuffer...).
+     * The characters are encoded using UTF-8 on the fly, hence no copy of
+     * the sequence is created.
+     * The block size is automatically computed.
+     *
+     * @param chars
+     * @return spamsum signature
      */
-    private static long sumHash(final long c, final long h) {
-        long result = (h * HASH_PRIME) % UINT32;
-        result = (result ^ c) % UINT32;
-        return result;
+    public final Signature hash(final CharSequence chars) {
+        return hash(chars, 0);
     }
 
-    /* A rolling hash, based on the Adler checksum. By using a rolling hash
-     * we can perform auto resynchronisation after inserts/deletes longernally,
-     * h1 is the sum of the bytes in the window and h2 is the sum of the bytes
-     * times the index. h3 is a shift/xor based rolling hash, and is mostly
-     * needed to ensure that we can cope with large blocksize values
+    /**
+     * Computes and returns the spamsum signature of this sequence of
+     * characters (String, StringBuilder, CharBuffer...).
+     * The characters are encoded using UTF-8 on the fly, hence no copy of
+     * the sequence is created.
+     *
+     * @param chars
+     * @param bsize block size; if 0, the block size is automatically computed
+     * @return spamsum signature
      */
-    private static final int ROLLING_WINDOW = 7;
-
-    private long[] rolling_window;
-    private long rolling_h1;
-    private long rolling_h2;
-    private long rolling_h3;
-    private long rolling_n;
-
-    private long rollingHash(final long c) {
-        rolling_h2 -= rolling_h1;
-        rolling_h2 = (rolling_h2 + ROLLING_WINDOW * c) % UINT32;
-
-        rolling_h1 = (rolling_h1 + c) % UINT32;
-        rolling_h1 -= rolling_window[(int) rolling_n % ROLLING_WINDOW];
+    public final Signature hash(final CharSequence chars, final int bsize) {
+
+        // the input is hashed in a single pass, for all candidate block
+        // sizes at once
+        long start = start();
+        SpamSumHasher hasher =
+                hasher(bsize, SpamSumHasher.utf8Length(chars));
+        hasher.update(chars);
+        return digest(hasher, start);
+    }
 
-        rolling_window[(int) (rolling_n % ROLLING_WINDOW)] = c;
-        rolling_n++;
+    /**
+     * Computes and returns the spamsum signature of this array of bytes.
+     * The block size is automatically computed.
+     *
+     * @param bytes
+     * @return spamsum signature
+     */
+    public final Signature hash(final byte[] bytes) {
+        return hash(bytes, 0, bytes.length);
+    }
 
-        rolling_h3 = ((rolling_h3 << 5) & 0xFFFFFFFF) % UINT32;
-        rolling_h3 = (rolling_h3 ^ c) % UINT32; // Bitwize XOR
+    /**
+     * Computes and returns the spamsum signature of count bytes from this
+     * array, starting at offset.
+     * The block size is automatically computed.
+     *
+     * @param bytes
+     * @param offset
+     * @param count
+     * @return spamsum signature
+     */
+    public final Signature hash(
+            final byte[] bytes, final int offset, final int count) {
+        long start = start();
+        SpamSumHasher hasher = hasher(0, count);
+        hasher.update(bytes, offset, count);
+        return digest(hasher, start);
+    }
 
-        return (rolling_h1 + rolling_h2 + rolling_h3) % UINT32;
+    /**
+     * Computes and returns the spamsum signature of the remaining bytes of
+     * this buffer. When this method returns, the position of the buffer is
+     * equal to its limit.
+     * The block size is automatically computed.
+     *
+     * @param buffer
+     * @return spamsum signature
+     */
+    public final Signature hash(final ByteBuffer buffer) {
+        long start = start();
+        SpamSumHasher hasher = hasher(0, buffer.remaining());
+        hasher.update(buffer);
+        return digest(hasher, start);
     }
 
-    private long rollingHashReset() {
-        rolling_window = new long[ROLLING_WINDOW];
+    /**
+     * Computes and returns the spamsum signature of the content of this
+     * stream. The stream is read until the end, but is not closed.
+     * The block size is automatically computed.
+     *
+     * @param stream
+     * @return spamsum signature
+     * @throws IOException if an I/O error occurs
+     */
+    public final Signature hash(final InputStream stream) throws IOException {
+        long start = start();
+        SpamSumHasher hasher = new SpamSumHasher();
+        hasher.update(stream);
+        return digest(hasher, start);
+    }
 
-        rolling_h1 = 0;
-        rolling_h2 = 0;
-        rolling_h3 = 0;
-        rolling_n = 0;
+    /**
+     * Computes and returns the spamsum signature of this file.
+     * The file is mapped in memory and hashed in place, without copying its
+     * content to the heap. The result is the same as "ssdeep -b".
+     * The block size is automatically computed.
+     *
+     * @param path
+     * @return spamsum signature
+     * @throws IOException if an I/O error occurs
+     */
+    public final Signature hashFile(final Path path) throws IOException {
+        try (FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long start = start();
+            long size = channel.size();
+            SpamSumHasher hasher = hasher(0, size);
+
+            // a single buffer cannot map more than 2GB
+            long position = 0;
+            while (position < size) {
+                long count = Math.min(MAP_WINDOW, size - position);
+                MappedByteBuffer buffer = channel.map(
+                        FileChannel.MapMode.READ_ONLY, position, count);
+                hasher.update(buffer);
+                position += count;
+            }
 
-        return 0;
+            return digest(hasher, start);
+        }
     }
 
-
+    /**
+     * A simple non-rolling hash, based on the FNV hash.
+     * http://en.wikipedia.org/wiki/Fowler%E2%80%93Noll%E2%80%93Vo_hash_function
+     * The original algorithm works using UINT32, hence we simply rely on
+     * int overflow.
+     */
+    static int sumHash(final int c, final int h) {
+        return (h * HASH_PRIME) ^ c;
+    }
 
     /**
      * Compute the similarity between two SpamSum signatures.
@@ -265,88 +345,431 @@ public class SpamSum {
         int block_size1 = Integer.parseInt(split1[0]);
         int block_size2 = Integer.parseInt(split2[0]);
 
-        //if the blocksizes don't match then we are comparing
-        // apples to oranges ...
-        if (block_size1 != block_size2
-                && block_size1 != block_size2 * 2
-                && block_size2 != block_size1 * 2) {
+        if (!compatible(block_size1, block_size2)) {
+            return rejected(block_size1, block_size2);
+        }
+
+        return match(
+                new PreparedSignature(block_size1, split1[1]),
+                new PreparedSignature(block_size2, split2[1]));
+    }
+
+    /**
+     * Compute the match score between two signatures.
+     * @param sig1
+     * @param sig2
+     * @return
+     */
+    public final int match(final Signature sig1, final Signature sig2) {
+        if (!compatible(sig1.getBlockSize(), sig2.getBlockSize())) {
+            return rejected(sig1.getBlockSize(), sig2.getBlockSize());
+        }
+
+        return match(new PreparedSignature(sig1), new PreparedSignature(sig2));
+    }
+
+    /**
+     * Compute the match score between two prepared signatures.
+     * Use this method when the same signature has to be compared to a lot of
+     * other signatures.
+     * @param sig1
+     * @param sig2
+     * @return
+     */
+    public final int match(
+            final PreparedSignature sig1, final PreparedSignature sig2) {
+
+        SpamSumListener current = listener;
+        if (current == null) {
+            return compare(sig1, sig2);
+        }
+
+        if (!compatible(sig1.getBlockSize(), sig2.getBlockSize())) {
+            current.rejected(sig1.getBlockSize(), sig2.getBlockSize());
             return 0;
         }
 
-        // there is very little information content is sequences of
-        // the same character like 'LLLLL'. Eliminate any sequences
-        // longer than 3.
-        String s1 = eliminateSequences(split1[1]);
-        String s2 = eliminateSequences(split2[1]);
+        long start = System.nanoTime();
+        int score = compare(sig1, sig2);
+        current.scored(score, System.nanoTime() - start);
+        return score;
+    }
+
+    /**
+     * Notify the listener (if any) that two signatures were not compared
+     * because their block sizes are not compatible.
+     * @return 0
+     */
+    static int rejected(
+            final long block_size1, final long block_size2) {
+        SpamSumListener current = listener;
+        if (current != null) {
+            current.rejected(block_size1, block_size2);
+        }
+        return 0;
+    }
+
+    private static int compare(
+            final PreparedSignature sig1, final PreparedSignature sig2) {
 
-        // now break them into the two pieces
-        // first block is abc:def
-        String s1_1 = s1;
-        String s2_1 = s2;
+        return compare(
+                sig1,
+                sig2.getBlockSize(),
+                sig2.getFirst(),
+                sig2.getFirst().length,
+                sig2.getSecond(),
+                sig2.getSecond().length);
+    }
 
-        // second block is :def
-        String s1_2 = ":" + s1.split(":")[1];
-        String s2_2 = ":" + s2.split(":")[1];
+    /**
+     * Compute the match score between sig1 and a signature whose blocks are
+     * stored in buffers (e.g. read from a SignatureStore).
+     */
+    static int compare(
+            final PreparedSignature sig1,
+            final int block_size2,
+            final char[] first2,
+            final int first_length2,
+            final char[] second2,
+            final int second_length2) {
+
+        int block_size1 = sig1.getBlockSize();
+        char[] first1 = sig1.getFirst();
+        char[] second1 = sig1.getSecond();
 
         // compute score
         if (block_size1 == block_size2) {
             return Math.max(
-                    score(s1_1, s2_1, block_size1),
-                    score(s1_2, s2_2, block_size1));
+                    score(first1, first1.length,
+                            first2, first_length2, block_size1),
+                    score(second1, second1.length,
+                            second2, second_length2, block_size1));
 
         } else if (block_size1 == block_size2 * 2) {
-            return score(s1_1, s2_2, block_size1);
+            return score(first1, first1.length,
+                    second2, second_length2, block_size1);
 
+        } else if (block_size2 == block_size1 * 2) {
+            return score(second1, second1.length,
+                    first2, first_length2, block_size2);
         }
 
-        return score(s1_2, s2_1, block_size2);
+        //if the blocksizes don't match then we are comparing
+        // apples to oranges ...
+        return 0;
     }
 
     /**
-     * Compute the match score between two signatures.
+     * Upper bound of match(sig1, sig2), computed without the edit distance.
      * @param sig1
      * @param sig2
      * @return
      */
-    public final int match(final Signature sig1, final Signature sig2) {
+    static int matchBound(
+            final PreparedSignature sig1, final PreparedSignature sig2) {
+
+        return matchBound(
+                sig1,
+                sig2.getBlockSize(),
+                sig2.getFirst().length,
+                sig2.getSecond().length);
+    }
+
+    /**
+     * Upper bound of the match score between sig1 and a signature of which
+     * only the block size and the length of the blocks are known.
+     */
+    static int matchBound(
+            final PreparedSignature sig1,
+            final int block_size2,
+            final int first_length2,
+            final int second_length2) {
+
+        int block_size1 = sig1.getBlockSize();
+
+        if (block_size1 == block_size2) {
+            return Math.max(
+                    scoreBound(sig1.getFirst().length,
+                            first_length2, block_size1),
+                    scoreBound(sig1.getSecond().length,
+                            second_length2, block_size1));
 
-        // This is dirty!
-        return match(sig1.toString(), sig2.toString());
+        } else if (block_size1 == block_size2 * 2) {
+            return scoreBound(sig1.getFirst().length,
+                    second_length2, block_size1);
+
+        } else if (block_size2 == block_size1 * 2) {
+            return scoreBound(sig1.getSecond().length,
+                    first_length2, block_size2);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Find the k candidates that have the highest score with the query.
+     * Candidates with a score of 0 are never returned.
+     *
+     * Candidates are skipped without computing the edit distance if their
+     * block size is not compatible with the query, or if an upper bound of
+     * their score (computed from the length of the blocks) is not better
+     * than the k-th best score found so far.
+     *
+     * @param query
+     * @param candidates
+     * @param k
+     * @return at most k results, by decreasing score (ties are kept in the
+     * order of the candidates)
+     */
+    public final List<SignatureIndex.Result> topK(
+            final Signature query,
+            final Iterable<Signature> candidates,
+            final int k) {
+
+        PreparedSignature prepared = new PreparedSignature(query);
+        TopK top = new TopK(k);
+        for (Signature candidate : candidates) {
+            if (compatible(query.getBlockSize(), candidate.getBlockSize())) {
+                top.offer(prepared, new PreparedSignature(candidate));
+            }
+        }
+        return top.results();
+    }
+
+    /**
+     * Same as topK(Signature, Iterable, int), with candidates that are
+     * already prepared.
+     *
+     * @param query
+     * @param candidates
+     * @param k
+     * @return at most k results, by decreasing score
+     */
+    public final List<SignatureIndex.Result> topK(
+            final PreparedSignature query,
+            final Iterable<PreparedSignature> candidates,
+            final int k) {
+
+        TopK top = new TopK(k);
+        for (PreparedSignature candidate : candidates) {
+            top.offer(query, candidate);
+        }
+        return top.results();
+    }
+
+    /**
+     * Find the candidates that have a score of at least min_score with the
+     * query. Candidates with a score of 0 are never returned.
+     * Candidates are skipped without computing the edit distance if their
+     * block size is not compatible with the query, or if an upper bound of
+     * their score is lower than min_score.
+     *
+     * @param query
+     * @param candidates
+     * @param min_score
+     * @return the matching candidates, by decreasing score (ties are kept
+     * in the order of the candidates)
+     */
+    public final List<SignatureIndex.Result> search(
+            final Signature query,
+            final Iterable<Signature> candidates,
+            final int min_score) {
+
+        PreparedSignature prepared = new PreparedSignature(query);
+        List<SignatureIndex.Result> results =
+                new ArrayList<SignatureIndex.Result>();
+        for (Signature candidate : candidates) {
+            if (!compatible(query.getBlockSize(), candidate.getBlockSize())) {
+                continue;
+            }
+
+            PreparedSignature prepared_candidate =
+                    new PreparedSignature(candidate);
+            if (matchBound(prepared, prepared_candidate) < min_score) {
+                continue;
+            }
+
+            int score = match(prepared, prepared_candidate);
+            if (score > 0 && score >= min_score) {
+                results.add(new SignatureIndex.Result(candidate, score));
+            }
+        }
+
+        // stable sort
+        Collections.sort(results, new Comparator<SignatureIndex.Result>() {
+            @Override
+            public int compare(
+                    final SignatureIndex.Result r1,
+                    final SignatureIndex.Result r2) {
+                return r2.getScore() - r1.getScore();
+            }
+        });
+        return results;
+    }
+
+    /**
+     * The k best candidates found so far, in a min-heap.
+     */
+    private final class TopK {
+        private final int k;
+        private final PriorityQueue<Entry> heap;
+        private long count = 0;
+
+        TopK(final int k) {
+            if (k < 1) {
+                throw new IllegalArgumentException("k must be at least 1");
+            }
+            this.k = k;
+            this.heap = new PriorityQueue<Entry>(k);
+        }
+
+        void offer(
+                final PreparedSignature query,
+                final PreparedSignature candidate) {
+
+            // a candidate must be strictly better than the k-th best
+            int threshold = heap.size() < k ? 0 : heap.peek().score;
+            if (matchBound(query, candidate) <= threshold) {
+                return;
+            }
+
+            int score = match(query, candidate);
+            if (score <= threshold) {
+                return;
+            }
+
+            if (heap.size() == k) {
+                heap.poll();
+            }
+            heap.add(new Entry(candidate.getSignature(), score, count++));
+        }
+
+        List<SignatureIndex.Result> results() {
+            Entry[] entries = heap.toArray(new Entry[heap.size()]);
+            Arrays.sort(entries, Collections.reverseOrder());
+
+            List<SignatureIndex.Result> results =
+                    new ArrayList<SignatureIndex.Result>(entries.length);
+            for (Entry entry : entries) {
+                results.add(
+                        new SignatureIndex.Result(entry.signature, entry.score));
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Entry of the heap: the worst entry has the lowest score, and was
+     * found last.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final Signature signature;
+        private final int score;
+        private final long order;
+
+        Entry(final Signature signature, final int score, final long order) {
+            this.signature = signature;
+            this.score = score;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            if (score != other.score) {
+                return score < other.score ? -1 : 1;
+            }
+            return Long.compare(other.order, order);
+        }
+    }
+
+    /**
+     * Signatures can only be compared if they have the same block size, or
+     * if the block size of one signature is twice the block size of the
+     * other.
+     */
+    static boolean compatible(final long block_size1, final long block_size2) {
+        return block_size1 == block_size2
+                || block_size1 == block_size2 * 2
+                || block_size2 == block_size1 * 2;
     }
 
     /**
      *
      * Compute the score between blocks using Levenshtein edit distance and
      * rescaling to return a score between 0 and 100.
+     * The edit distance is computed by a bit-parallel algorithm, since
+     * blocks have at most 64 characters.
      *
      * C code originally translated by Mahmood S Zargar.
      * https://github.com/retrography/JessDeep/
      *
      * @param s1
+     * @param len1 number of characters of s1
      * @param s2
+     * @param len2 number of characters of s2
      * @param block_size
      * @return
      */
-    private int score(final String s1, final String s2, final int block_size) {
-
-        int len1 = s1.length();
-        int len2 = s2.length();
+    private static int score(
+            final char[] s1,
+            final int len1,
+            final char[] s2,
+            final int len2,
+            final int block_size) {
 
         if (len1 > SPAMSUM_LENGTH || len2 > SPAMSUM_LENGTH) {
             /* not a real spamsum signature? */
             return 0;
         }
 
+        // the two strings must have a common substring of ROLLING_WINDOW
+        // characters, otherwise they are not similar at all (and we can
+        // skip the computation of the edit distance)
+        if (!EditDistance.hasCommonSubstring(s1, len1, s2, len2)) {
+            return 0;
+        }
+
         // compute the edit distance between the two strings
-        Levenshtein levenshtein = new Levenshtein();
-        int score = (int) levenshtein.distance(s1, s2);
+        return rescale(
+                EditDistance.distance(s1, len1, s2, len2),
+                len1,
+                len2,
+                block_size);
+    }
+
+    /**
+     * Upper bound of score(), computed using only the length of the blocks:
+     * the edit distance is at least the difference of lengths, and the
+     * score decreases when the edit distance increases.
+     */
+    private static int scoreBound(
+            final int len1, final int len2, final int block_size) {
+
+        if (len1 > SPAMSUM_LENGTH || len2 > SPAMSUM_LENGTH
+                || len1 < ROLLING_WINDOW || len2 < ROLLING_WINDOW) {
+            // no common substring of ROLLING_WINDOW characters
+            return 0;
+        }
+
+        return rescale(Math.abs(len1 - len2), len1, len2, block_size);
+    }
+
+    /**
+     * Convert an edit distance to a score between 0 and 100.
+     */
+    private static int rescale(
+            final int distance,
+            final int len1,
+            final int len2,
+            final int block_size) {
 
         // Rescale to get a score between 0 and 100
         // and independant of the length of strings
         // the original C code first multiplies by 64 (SPAMSUM_LENGTH) and
         // then divides by 64, which introduces some rounding approximations
         // hence we cannot simplify the line below... :(
-        score = (score * SPAMSUM_LENGTH) / (len1 + len2) * 100 / SPAMSUM_LENGTH;
+        int score =
+                (distance * SPAMSUM_LENGTH) / (len1 + len2) * 100 / SPAMSUM_LENGTH;
 
         // it is possible to get a score above 100 here, but it is a
         // really terrible match
@@ -375,7 +798,7 @@ public class SpamSum {
      * @param str
      * @return
      */
-    private String eliminateSequences(final String str) {
+    static String eliminateSequences(final String str) {
 
         char[] str_array = str.toCharArray();
         char[] ret =  str.toCharArray();
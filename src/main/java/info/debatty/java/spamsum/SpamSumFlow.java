@@ -0,0 +1,290 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Flow processors that hash a stream of documents, and match the
+ * signatures against a SignatureIndex:
+ * <pre>
+ * publisher.subscribe(hasher);
+ * hasher.subscribe(matcher);
+ * matcher.subscribe(subscriber);
+ * </pre>
+ *
+ * Processors run on an Executor, with backpressure (see
+ * ParallelProcessor): a burst of documents is not buffered in memory
+ * beyond the buffer size of each stage, and the publisher is only asked
+ * for more documents when the results are consumed.
+ *
+ * @author Thibault Debatty
+ */
+public final class SpamSumFlow {
+
+    private SpamSumFlow() {
+    }
+
+    /**
+     * Hash documents using the common ForkJoinPool, with ordered results.
+     *
+     * @param <K> type of the document ids
+     * @return
+     */
+    public static <K> ParallelProcessor<Document<K>, Hashed<K>> hasher() {
+        return hasher(
+                ForkJoinPool.commonPool(),
+                ForkJoinPool.getCommonPoolParallelism(),
+                ParallelProcessor.DEFAULT_BUFFER_SIZE,
+                true);
+    }
+
+    /**
+     * Hash documents.
+     *
+     * @param <K> type of the document ids
+     * @param executor
+     * @param parallelism maximum number of documents hashed concurrently
+     * @param buffer_size maximum number of documents in the processor
+     * @param ordered if true, results are delivered in the order of the
+     * documents
+     * @return
+     */
+    public static <K> ParallelProcessor<Document<K>, Hashed<K>> hasher(
+            final Executor executor,
+            final int parallelism,
+            final int buffer_size,
+            final boolean ordered) {
+
+        final SpamSum spamsum = new SpamSum();
+        return new ParallelProcessor<Document<K>, Hashed<K>>(
+                new Function<Document<K>, Hashed<K>>() {
+                    @Override
+                    public Hashed<K> apply(final Document<K> document) {
+                        // the position of the document is not modified
+                        Signature signature =
+                                spamsum.hash(document.content.duplicate());
+                        return new Hashed<K>(document.id, signature);
+                    }
+                },
+                executor, parallelism, buffer_size, ordered);
+    }
+
+    /**
+     * Search the signatures in the index using the common ForkJoinPool,
+     * with ordered results.
+     *
+     * @param <K> type of the document ids
+     * @param index
+     * @param min_score
+     * @return
+     */
+    public static <K> ParallelProcessor<Hashed<K>, Matched<K>> matcher(
+            final SignatureIndex index, final int min_score) {
+        return matcher(
+                index,
+                min_score,
+                ForkJoinPool.commonPool(),
+                ForkJoinPool.getCommonPoolParallelism(),
+                ParallelProcessor.DEFAULT_BUFFER_SIZE,
+                true);
+    }
+
+    /**
+     * Search the signatures in the index. A result is delivered for each
+     * signature, even if there is no match.
+     *
+     * @param <K> type of the document ids
+     * @param index the signatures to match against
+     * @param min_score minimum score of the matches
+     * @param executor
+     * @param parallelism maximum number of signatures searched concurrently
+     * @param buffer_size maximum number of signatures in the processor
+     * @param ordered if true, results are delivered in the order of the
+     * signatures
+     * @return
+     */
+    public static <K> ParallelProcessor<Hashed<K>, Matched<K>> matcher(
+            final SignatureIndex index,
+            final int min_score,
+            final Executor executor,
+            final int parallelism,
+            final int buffer_size,
+            final boolean ordered) {
+
+        return new ParallelProcessor<Hashed<K>, Matched<K>>(
+                new Function<Hashed<K>, Matched<K>>() {
+                    @Override
+                    public Matched<K> apply(final Hashed<K> hashed) {
+                        return new Matched<K>(
+                                hashed.id,
+                                hashed.signature,
+                                index.search(hashed.signature, min_score));
+                    }
+                },
+                executor, parallelism, buffer_size, ordered);
+    }
+
+    /**
+     * A document to hash.
+     *
+     * @param <K> type of the id
+     */
+    public static final class Document<K> {
+        private final K id;
+        private final ByteBuffer content;
+
+        /**
+         *
+         * @param id
+         * @param content the remaining bytes of the buffer are hashed
+         */
+        public Document(final K id, final ByteBuffer content) {
+            this.id = id;
+            this.content = content;
+        }
+
+        /**
+         *
+         * @param id
+         * @param content
+         */
+        public Document(final K id, final byte[] content) {
+            this(id, ByteBuffer.wrap(content));
+        }
+
+        /**
+         *
+         * @return
+         */
+        public K getId() {
+            return id;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public ByteBuffer getContent() {
+            return content;
+        }
+    }
+
+    /**
+     * The signature of a document.
+     *
+     * @param <K> type of the id
+     */
+    public static final class Hashed<K> {
+        private final K id;
+        private final Signature signature;
+
+        /**
+         *
+         * @param id
+         * @param signature
+         */
+        public Hashed(final K id, final Signature signature) {
+            this.id = id;
+            this.signature = signature;
+        }
+
+        /**
+         *
+         * @return id of the document
+         */
+        public K getId() {
+            return id;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public Signature getSignature() {
+            return signature;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + signature;
+        }
+    }
+
+    /**
+     * The signature of a document, and the signatures of the index that
+     * match it.
+     *
+     * @param <K> type of the id
+     */
+    public static final class Matched<K> {
+        private final K id;
+        private final Signature signature;
+        private final List<SignatureIndex.Result> matches;
+
+        Matched(
+                final K id,
+                final Signature signature,
+                final List<SignatureIndex.Result> matches) {
+            this.id = id;
+            this.signature = signature;
+            this.matches = matches;
+        }
+
+        /**
+         *
+         * @return id of the document
+         */
+        public K getId() {
+            return id;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public Signature getSignature() {
+            return signature;
+        }
+
+        /**
+         *
+         * @return the matching signatures, by decreasing score (may be
+         * empty)
+         */
+        public List<SignatureIndex.Result> getMatches() {
+            return matches;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + signature + " " + matches;
+        }
+    }
+}
@@ -0,0 +1,741 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental SpamSum hasher.
+ *
+ * Input can be provided in pieces, using the different update methods, and
+ * the signature is computed by digest(). The memory used by the hasher does
+ * not depend on the size of the input:
+ * <pre>
+ * SpamSumHasher hasher = new SpamSumHasher();
+ * while (...) {
+ *     hasher.update(buffer, 0, count);
+ * }
+ * Signature signature = hasher.digest();
+ * </pre>
+ *
+ * The original algorithm guesses a block size, hashes the input and, if the
+ * signature is too short, halves the block size and hashes the whole input
+ * again. Instead, this engine runs the rolling hash only once and keeps a
+ * running sum hash for every candidate block size (MIN_BLOCKSIZE * 2^i).
+ * The final block size is selected when the digest is computed, using the
+ * same rules as the original algorithm, hence the signatures are identical.
+ *
+ * Largely inspired by ssdeep 2.13 and later.
+ *
+ * All computations are performed using 32 bit int arithmetic, like the
+ * original C code with uint32. A hasher is not thread-safe, but it can be
+ * reset and reused, in which case no memory is allocated except for the
+ * resulting signature.
+ *
+ * The state of the hasher can be saved (snapshot() or writeTo()) and
+ * restored later (restore() or readFrom()), to continue hashing a growing
+ * input (e.g. a log file) with only the new bytes.
+ *
+ * @author Thibault Debatty
+ */
+public final class SpamSumHasher {
+
+    // MIN_BLOCKSIZE << 29 is the largest block size that fits in an int
+    static final int MAX_LEVELS = 30;
+
+    // number of characters after which the left part of the signature stops
+    // resetting its sum hash, and the same for the right part
+    static final int LEFT_CAP = SpamSum.SPAMSUM_LENGTH - 1;
+    static final int HALF_CAP = SpamSum.SPAMSUM_LENGTH / 2 - 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // binary format of the state (snapshot() and restore())
+    private static final int STATE_VERSION = 1;
+    private static final int NO_SYMBOL = 0xFF;
+
+    // the rolling window (last 7 bytes) is stored in a single long
+    private static final long WINDOW_MASK = 0x00FFFFFFFFFFFFFFL;
+    private static final int WINDOW_LAST = 8 * (SpamSum.ROLLING_WINDOW - 1);
+
+    private boolean auto_blocksize;
+    private int base_blocksize;
+    private long expected_length;
+    private int max_level;
+
+    // rolling hash
+    private long rolling_window;
+    private int rolling_h1;
+    private int rolling_h2;
+    private int rolling_h3;
+    private int h;
+    private long length;
+
+    // For each level i (block size base_blocksize << i) we keep the sum hash
+    // and the characters of the left part of the signature. The right part
+    // for level i is produced by level i + 1: as long as fewer than HALF_CAP
+    // characters were emitted, it is identical to the left part of level
+    // i + 1. Past that point it uses a separate sum hash (half_hash) and only
+    // its last character (half_last) may still change.
+    private final int[] left_hash = new int[MAX_LEVELS];
+    private final int[] left_length = new int[MAX_LEVELS];
+    private final char[][] left_digest =
+            new char[MAX_LEVELS][SpamSum.SPAMSUM_LENGTH];
+    private final int[] half_hash = new int[MAX_LEVELS];
+    private final char[] half_last = new char[MAX_LEVELS];
+
+    // Levels first..last are active. Levels above last did not hit a reset
+    // point yet, hence their state is identical to the state of level last.
+    // Levels below first can no longer be selected, so they are dropped.
+    private int first;
+    private int last;
+
+    // used to build the parts of the signature
+    private final char[] buffer = new char[SpamSum.SPAMSUM_LENGTH];
+
+    /**
+     * Create a hasher that automatically computes the block size.
+     */
+    public SpamSumHasher() {
+        this(0);
+    }
+
+    /**
+     *
+     * @param blocksize if 0, the block size is automatically computed
+     */
+    public SpamSumHasher(final int blocksize) {
+        this(blocksize, -1);
+    }
+
+    /**
+     *
+     * @param blocksize if 0, the block size is automatically computed
+     * @param expected_length total number of bytes that will be hashed, or
+     * -1 if unknown
+     */
+    SpamSumHasher(final int blocksize, final long expected_length) {
+        reset(blocksize, expected_length);
+    }
+
+    /**
+     * Reset the hasher, so it can be used to hash a new input.
+     */
+    public void reset() {
+        rolling_window = 0;
+        rolling_h1 = 0;
+        rolling_h2 = 0;
+        rolling_h3 = 0;
+        h = 0;
+        length = 0;
+
+        first = 0;
+        last = auto_blocksize ? 0 : 1;
+        for (int i = 0; i <= last; i++) {
+            initLevel(i, SpamSum.HASH_INIT);
+        }
+    }
+
+    /**
+     * Reset the hasher, and change its settings.
+     *
+     * @param blocksize if 0, the block size is automatically computed
+     * @param expected_length total number of bytes that will be hashed, or
+     * -1 if unknown
+     */
+    void reset(final int blocksize, final long expected_length) {
+        if (blocksize < 0) {
+            throw new IllegalArgumentException(
+                    "Block size must be positive or 0");
+        }
+
+        this.auto_blocksize = blocksize == 0;
+        this.expected_length = expected_length;
+
+        if (auto_blocksize) {
+            base_blocksize = SpamSum.MIN_BLOCKSIZE;
+            if (expected_length >= 0) {
+                // no need to track levels that are larger than the initial
+                // guess of the original algorithm (+1 for the right part)
+                max_level = Math.min(
+                        guessLevel(expected_length) + 1, MAX_LEVELS - 1);
+            } else {
+                max_level = MAX_LEVELS - 1;
+            }
+
+        } else {
+            // level 0 produces the left part, level 1 the right part
+            base_blocksize = blocksize;
+            max_level = 1;
+        }
+
+        reset();
+    }
+
+    /**
+     * Hash all bytes from buffer.
+     * @param buffer
+     */
+    public void update(final byte[] buffer) {
+        update(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Hash count bytes from buffer, starting at offset.
+     * @param buffer
+     * @param offset
+     * @param count
+     */
+    public void update(final byte[] buffer, final int offset, final int count) {
+        if (offset < 0 || count < 0 || offset > buffer.length - count) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        // the rolling hash is computed using local variables
+        long window = rolling_window;
+        int h1 = rolling_h1;
+        int h2 = rolling_h2;
+        int h3 = rolling_h3;
+
+        int end = offset + count;
+        for (int p = offset; p < end; p++) {
+            int c = buffer[p] & 0xFF;
+
+            int out = (int) (window >>> WINDOW_LAST) & 0xFF;
+            window = ((window << 8) | c) & WINDOW_MASK;
+            h2 += SpamSum.ROLLING_WINDOW * c - h1;
+            h1 += c - out;
+            h3 = (h3 << 5) ^ c;
+
+            update(c, h1 + h2 + h3);
+        }
+
+        rolling_window = window;
+        rolling_h1 = h1;
+        rolling_h2 = h2;
+        rolling_h3 = h3;
+    }
+
+    /**
+     * Hash the remaining bytes of the buffer.
+     * When this method returns, the position of the buffer is equal to its
+     * limit.
+     * @param buffer
+     */
+    public void update(final ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int position = buffer.position();
+            update(
+                    buffer.array(),
+                    buffer.arrayOffset() + position,
+                    buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        // direct (or memory mapped) buffer: read bytes in place
+        long window = rolling_window;
+        int h1 = rolling_h1;
+        int h2 = rolling_h2;
+        int h3 = rolling_h3;
+
+        int limit = buffer.limit();
+        for (int p = buffer.position(); p < limit; p++) {
+            int c = buffer.get(p) & 0xFF;
+
+            int out = (int) (window >>> WINDOW_LAST) & 0xFF;
+            window = ((window << 8) | c) & WINDOW_MASK;
+            h2 += SpamSum.ROLLING_WINDOW * c - h1;
+            h1 += c - out;
+            h3 = (h3 << 5) ^ c;
+
+            update(c, h1 + h2 + h3);
+        }
+
+        rolling_window = window;
+        rolling_h1 = h1;
+        rolling_h2 = h2;
+        rolling_h3 = h3;
+        buffer.position(limit);
+    }
+
+    /**
+     * Hash the UTF-8 representation of this sequence of characters.
+     * Characters are encoded on the fly, without creating a copy of the
+     * sequence. Malformed surrogates are replaced by '?', like
+     * String.getBytes(), hence a surrogate pair should not be split
+     * between two calls.
+     * @param chars
+     */
+    public void update(final CharSequence chars) {
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+
+            if (c < 0x80) {
+                update((int) c);
+
+            } else if (c < 0x800) {
+                update(0xC0 | (c >> 6));
+                update(0x80 | (c & 0x3F));
+
+            } else if (!Character.isSurrogate(c)) {
+                update(0xE0 | (c >> 12));
+                update(0x80 | ((c >> 6) & 0x3F));
+                update(0x80 | (c & 0x3F));
+
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int code_point = Character.toCodePoint(c, chars.charAt(i + 1));
+                update(0xF0 | (code_point >> 18));
+                update(0x80 | ((code_point >> 12) & 0x3F));
+                update(0x80 | ((code_point >> 6) & 0x3F));
+                update(0x80 | (code_point & 0x3F));
+                i++;
+
+            } else {
+                update('?');
+            }
+        }
+    }
+
+    /**
+     * Number of bytes of the UTF-8 representation of this sequence of
+     * characters, as produced by update(CharSequence).
+     */
+    static long utf8Length(final CharSequence chars) {
+        int length = chars.length();
+        long count = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                count++;
+            } else if (c < 0x800) {
+                count += 2;
+            } else if (!Character.isSurrogate(c)) {
+                count += 3;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                count += 4;
+                i++;
+            } else {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Hash all bytes from the stream, until the end of the stream is
+     * reached. The stream is not closed.
+     * @param stream
+     * @throws IOException if an I/O error occurs
+     */
+    public void update(final InputStream stream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = stream.read(buffer)) != -1) {
+            update(buffer, 0, count);
+        }
+    }
+
+    /**
+     *
+     * @return the number of bytes hashed so far
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Save the state of this hasher, so it can be restored later with
+     * restore().
+     * @return
+     */
+    public byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(new DataOutputStream(bytes));
+        } catch (IOException ex) {
+            // cannot happen with a ByteArrayOutputStream
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Create a hasher from a state saved by snapshot().
+     * @param state
+     * @return
+     * @throws IOException if the state is not valid
+     */
+    public static SpamSumHasher restore(final byte[] state)
+            throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(state)));
+    }
+
+    /**
+     * Write the state of this hasher, in binary format (big-endian).
+     * Only the active levels are written, hence the state takes at most a
+     * few hundred bytes.
+     * @param out
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        out.writeByte(STATE_VERSION);
+        out.writeBoolean(auto_blocksize);
+        out.writeInt(base_blocksize);
+        out.writeLong(expected_length);
+        out.writeByte(max_level);
+
+        out.writeLong(rolling_window);
+        out.writeInt(rolling_h1);
+        out.writeInt(rolling_h2);
+        out.writeInt(rolling_h3);
+        out.writeInt(h);
+        out.writeLong(length);
+
+        out.writeByte(first);
+        out.writeByte(last);
+        for (int i = first; i <= last; i++) {
+            out.writeInt(left_hash[i]);
+            out.writeByte(left_length[i]);
+
+            // when the left part is full, its last character may still change
+            int count = left_length[i];
+            if (count == LEFT_CAP) {
+                count = SpamSum.SPAMSUM_LENGTH;
+            }
+            for (int j = 0; j < count; j++) {
+                out.writeByte(symbol(left_digest[i][j]));
+            }
+
+            out.writeInt(half_hash[i]);
+            out.writeByte(symbol(half_last[i]));
+        }
+    }
+
+    /**
+     * Read the state of a hasher, as written by writeTo().
+     * @param in
+     * @return
+     * @throws IOException if an I/O error occurs, or if the state is not
+     * valid
+     */
+    public static SpamSumHasher readFrom(final DataInput in)
+            throws IOException {
+
+        if (in.readUnsignedByte() != STATE_VERSION) {
+            throw new IOException("Invalid hasher state: unknown version");
+        }
+
+        SpamSumHasher hasher = new SpamSumHasher();
+        hasher.auto_blocksize = in.readBoolean();
+        hasher.base_blocksize = in.readInt();
+        hasher.expected_length = in.readLong();
+        hasher.max_level = in.readUnsignedByte();
+
+        hasher.rolling_window = in.readLong();
+        hasher.rolling_h1 = in.readInt();
+        hasher.rolling_h2 = in.readInt();
+        hasher.rolling_h3 = in.readInt();
+        hasher.h = in.readInt();
+        hasher.length = in.readLong();
+
+        hasher.first = in.readUnsignedByte();
+        hasher.last = in.readUnsignedByte();
+        if (hasher.base_blocksize <= 0
+                || hasher.max_level >= MAX_LEVELS
+                || hasher.first > hasher.last
+                || hasher.last > hasher.max_level
+                || (hasher.rolling_window & ~WINDOW_MASK) != 0
+                || hasher.length < 0) {
+            throw new IOException("Invalid hasher state");
+        }
+
+        for (int i = hasher.first; i <= hasher.last; i++) {
+            hasher.left_hash[i] = in.readInt();
+            hasher.left_length[i] = in.readUnsignedByte();
+
+            int count = hasher.left_length[i];
+            if (count > LEFT_CAP) {
+                throw new IOException("Invalid hasher state");
+            }
+            if (count == LEFT_CAP) {
+                count = SpamSum.SPAMSUM_LENGTH;
+            }
+            for (int j = 0; j < count; j++) {
+                hasher.left_digest[i][j] = character(in.readUnsignedByte());
+            }
+
+            hasher.half_hash[i] = in.readInt();
+            hasher.half_last[i] = character(in.readUnsignedByte());
+        }
+        return hasher;
+    }
+
+    /**
+     * Index of a character in the Base64 alphabet, or NO_SYMBOL if the
+     * character was not set (0).
+     */
+    private static int symbol(final char character) {
+        if (character == 0) {
+            return NO_SYMBOL;
+        }
+        return Signature.B64_INDEX[character];
+    }
+
+    private static char character(final int symbol) throws IOException {
+        if (symbol == NO_SYMBOL) {
+            return 0;
+        }
+        if (symbol >= SpamSum.CHARACTERS) {
+            throw new IOException("Invalid hasher state");
+        }
+        return SpamSum.B64[symbol];
+    }
+
+    /**
+     * Hash a single byte (0 - 255).
+     * @param character
+     */
+    private void update(final int character) {
+        int out = (int) (rolling_window >>> WINDOW_LAST) & 0xFF;
+        rolling_window = ((rolling_window << 8) | character) & WINDOW_MASK;
+        rolling_h2 += SpamSum.ROLLING_WINDOW * character - rolling_h1;
+        rolling_h1 += character - out;
+        rolling_h3 = (rolling_h3 << 5) ^ character;
+
+        update(character, rolling_h1 + rolling_h2 + rolling_h3);
+    }
+
+    /**
+     * Update the sum hash of each level with this byte, and emit a
+     * character for the levels that hit a reset point.
+     *
+     * @param character
+     * @param rolling value of the rolling hash after this byte
+     */
+    private void update(final int character, final int rolling) {
+        h = rolling;
+        length++;
+
+        for (int i = first; i <= last; i++) {
+            left_hash[i] = SpamSum.sumHash(character, left_hash[i]);
+            if (left_length[i] >= HALF_CAP) {
+                half_hash[i] = SpamSum.sumHash(character, half_hash[i]);
+            }
+        }
+
+        long blocksize = (long) base_blocksize << first;
+        if ((rolling & 0xFFFFFFFFL) % blocksize == blocksize - 1) {
+            emit();
+        }
+    }
+
+    /**
+     * We have hit a reset point for (at least) the first level.
+     */
+    private void emit() {
+
+        // reset points of level i + 1 are a subset of the reset points of
+        // level i, hence we can stop at the first level that does not match
+        long blocksize = (long) base_blocksize << first;
+        for (int i = first; i <= last; i++) {
+            if ((h & 0xFFFFFFFFL) % blocksize != blocksize - 1) {
+                break;
+            }
+            emit(i);
+            blocksize = blocksize * 2;
+        }
+
+        // lower levels can be dropped once they can no longer be selected
+        if (auto_blocksize) {
+            long total = expected_length >= 0 ? expected_length : length;
+            while (first + 1 < last
+                    && left_length[first + 1] >= SpamSum.SPAMSUM_LENGTH / 2
+                    && ((long) base_blocksize << first)
+                        * SpamSum.SPAMSUM_LENGTH < total) {
+                first++;
+            }
+        }
+    }
+
+    /**
+     * Compute the signature of the bytes hashed so far.
+     * This does not modify the state of the hasher, which means more input
+     * can be added afterwards.
+     * @return spamsum signature
+     */
+    public Signature digest() {
+
+        // If we have anything left then add it to the end. This ensures
+        // that the last part of the string is always considered
+        boolean tail = h != 0;
+
+        int level = 0;
+        if (auto_blocksize) {
+            // blocksize guess may have been way off, move to a smaller
+            // block size unless dividing by 2 would produce a hash too small
+            level = Math.max(first, Math.min(guessLevel(length), last));
+            while (level > first
+                    && left_length[level] < SpamSum.SPAMSUM_LENGTH / 2) {
+                level--;
+            }
+        }
+
+        String left = leftPart(level, tail);
+        String right;
+        if (level < last) {
+            right = rightPart(level + 1, tail);
+
+        } else {
+            // level + 1 is identical to level, which never hit a reset point
+            right = tail ? String.valueOf(b64(left_hash[level])) : "";
+        }
+
+        return new Signature(left, right, base_blocksize << level);
+    }
+
+    /**
+     * Number of times the original algorithm would have halved the block
+     * size, and hashed the whole input again, to produce this signature
+     * (computed by digest()). This hasher does not hash the input again.
+     */
+    int halvings(final Signature signature) {
+        if (!auto_blocksize) {
+            return 0;
+        }
+        return halvings(length, signature.getBlockSize());
+    }
+
+    /**
+     * Same as halvings(signature), for a signature of length bytes whose
+     * block size was automatically computed.
+     */
+    static int halvings(final long length, final long blocksize) {
+        int level = Long.numberOfTrailingZeros(
+                blocksize / SpamSum.MIN_BLOCKSIZE);
+        return Math.max(0, guessLevel(length) - level);
+    }
+
+    private String leftPart(final int level, final boolean tail) {
+        int count = left_length[level];
+        char[] digest = left_digest[level];
+        System.arraycopy(digest, 0, buffer, 0, count);
+
+        if (tail) {
+            buffer[count++] = b64(left_hash[level]);
+        } else if (count == LEFT_CAP && digest[LEFT_CAP] != 0) {
+            buffer[count++] = digest[LEFT_CAP];
+        }
+        return new String(buffer, 0, count);
+    }
+
+    private String rightPart(final int level, final boolean tail) {
+        int count = Math.min(left_length[level], HALF_CAP);
+        boolean capped = left_length[level] >= HALF_CAP;
+        System.arraycopy(left_digest[level], 0, buffer, 0, count);
+
+        if (tail) {
+            buffer[count++] =
+                    b64(capped ? half_hash[level] : left_hash[level]);
+        } else if (capped && half_last[level] != 0) {
+            buffer[count++] = half_last[level];
+        }
+        return new String(buffer, 0, count);
+    }
+
+    /**
+     * We have hit a reset point for this level. We now emit a hash which is
+     * based on all characters in the piece of the string between the last
+     * reset point and this one.
+     */
+    private void emit(final int level) {
+        int count = left_length[level];
+
+        if (count == 0 && level == last && last < max_level) {
+            // first reset point for this level: until now the next level
+            // was identical, so we can start it from the current state
+            last++;
+            initLevel(last, left_hash[level]);
+        }
+
+        if (count >= HALF_CAP) {
+            half_last[level] = b64(half_hash[level]);
+        }
+
+        left_digest[level][count] = b64(left_hash[level]);
+        if (count < LEFT_CAP) {
+
+            // we can have a problem with the tail overflowing. The easiest
+            // way to cope with this is to only reset the sum hash if we have
+            // room for more characters in our signature. This has the effect
+            // of combining the last few pieces of the message into a single
+            // piece
+            left_hash[level] = SpamSum.HASH_INIT;
+            left_length[level] = count + 1;
+
+            if (count + 1 == HALF_CAP) {
+                half_hash[level] = SpamSum.HASH_INIT;
+            }
+        }
+    }
+
+    private void initLevel(final int level, final int hash) {
+        left_hash[level] = hash;
+        left_length[level] = 0;
+        left_digest[level][LEFT_CAP] = 0;
+        half_last[level] = 0;
+    }
+
+    /**
+     * Level of the block size that the original algorithm would try first.
+     */
+    static int guessLevel(final long length) {
+        int level = 0;
+        while (((long) SpamSum.MIN_BLOCKSIZE << level)
+                * SpamSum.SPAMSUM_LENGTH < length
+                && level < MAX_LEVELS - 1) {
+            level++;
+        }
+        return level;
+    }
+
+    static char b64(final int hash) {
+        // CHARACTERS is a power of 2
+        return SpamSum.B64[hash & (SpamSum.CHARACTERS - 1)];
+    }
+}
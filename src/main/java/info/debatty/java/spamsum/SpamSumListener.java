@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+/**
+ * Receives a notification each time SpamSum computes a signature or
+ * compares two signatures (see SpamSum.setListener()).
+ *
+ * Signatures computed by SpamSum, ParallelHasher, BatchHasher and
+ * DirectoryHasher are notified, as well as the comparisons of SpamSum,
+ * SignatureIndex, SignatureClustering, SignatureStore and MatchCache.
+ * Signatures computed directly with a SpamSumHasher are not notified
+ * (the hasher does not know when hashing started), and neither are the
+ * scores found in the cache of a MatchCache, or the candidates skipped
+ * by an index because of their upper bound.
+ *
+ * Methods are called by the threads that use SpamSum, hence they must be
+ * thread-safe and fast.
+ *
+ * @author Thibault Debatty
+ */
+public interface SpamSumListener {
+
+    /**
+     * A signature was computed.
+     *
+     * @param length number of bytes hashed
+     * @param blocksize block size of the signature
+     * @param halvings number of times the original algorithm would have
+     * halved the block size and hashed the input again
+     * @param nanos time spent hashing, in nanoseconds
+     */
+    void hashed(long length, long blocksize, int halvings, long nanos);
+
+    /**
+     * Two signatures were not compared (their score is 0) because their
+     * block sizes are not compatible.
+     *
+     * @param block_size1
+     * @param block_size2
+     */
+    void rejected(long block_size1, long block_size2);
+
+    /**
+     * Two signatures were compared.
+     *
+     * @param score
+     * @param nanos time spent computing the score (edit distance), in
+     * nanoseconds
+     */
+    void scored(int score, long nanos);
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the work performed by SpamSum, that can be exposed as a JMX
+ * MBean:
+ * <pre>
+ * SpamSumMetrics metrics = new SpamSumMetrics();
+ * metrics.register();
+ * SpamSum.setListener(metrics);
+ * </pre>
+ *
+ * Counters are LongAdder objects, hence threads that update them
+ * concurrently do not contend on the same memory location.
+ *
+ * @author Thibault Debatty
+ */
+public class SpamSumMetrics implements SpamSumListener, SpamSumMetricsMBean {
+
+    /**
+     * Name used by register().
+     */
+    public static final String OBJECT_NAME =
+            "info.debatty.java.spamsum:type=SpamSumMetrics";
+
+    // one bucket per power of 2 nanoseconds
+    private static final int LATENCY_BUCKETS = 32;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder hash_time = new LongAdder();
+    private final LongAdder halvings = new LongAdder();
+
+    // block size 3 * 2^i, and other block sizes
+    private final LongAdder[] blocksizes =
+            new LongAdder[SpamSumHasher.MAX_LEVELS + 1];
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder scored = new LongAdder();
+    private final LongAdder match_time = new LongAdder();
+    private final LongAdder[] latencies = new LongAdder[LATENCY_BUCKETS];
+
+    /**
+     * Create counters initialized to 0.
+     */
+    public SpamSumMetrics() {
+        for (int i = 0; i < blocksizes.length; i++) {
+            blocksizes[i] = new LongAdder();
+        }
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Register these metrics in the platform MBean server, with name
+     * OBJECT_NAME.
+     *
+     * @return the name of the MBean
+     * @throws JMException if the MBean cannot be registered (e.g. another
+     * SpamSumMetrics is already registered)
+     */
+    public final ObjectName register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * Remove these metrics from the platform MBean server.
+     *
+     * @throws JMException if the MBean is not registered
+     */
+    public final void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                new ObjectName(OBJECT_NAME));
+    }
+
+    @Override
+    public final void hashed(
+            final long length,
+            final long blocksize,
+            final int halvings,
+            final long nanos) {
+
+        hashes.increment();
+        bytes.add(length);
+        hash_time.add(nanos);
+        this.halvings.add(halvings);
+
+        // blocksize == MIN_BLOCKSIZE * 2^level
+        int level = Long.numberOfTrailingZeros(blocksize);
+        if (blocksize >>> level == SpamSum.MIN_BLOCKSIZE
+                && level < SpamSumHasher.MAX_LEVELS) {
+            blocksizes[level].increment();
+        } else {
+            blocksizes[SpamSumHasher.MAX_LEVELS].increment();
+        }
+    }
+
+    @Override
+    public final void rejected(
+            final long block_size1, final long block_size2) {
+        rejected.increment();
+    }
+
+    @Override
+    public final void scored(final int score, final long nanos) {
+        scored.increment();
+        match_time.add(nanos);
+
+        // bucket i contains [2^i, 2^(i+1)[, and 0 goes to bucket 0
+        int bucket = 63 - Long.numberOfLeadingZeros(nanos | 1);
+        latencies[Math.min(bucket, LATENCY_BUCKETS - 1)].increment();
+    }
+
+    @Override
+    public final long getHashCount() {
+        return hashes.sum();
+    }
+
+    @Override
+    public final long getBytesHashed() {
+        return bytes.sum();
+    }
+
+    @Override
+    public final long getHashTime() {
+        return hash_time.sum();
+    }
+
+    @Override
+    public final double getThroughput() {
+        long nanos = hash_time.sum();
+        if (nanos == 0) {
+            return 0;
+        }
+        // bytes per nanosecond = 1000 MB/s
+        return 1000.0 * bytes.sum() / nanos;
+    }
+
+    @Override
+    public final long getHalvings() {
+        return halvings.sum();
+    }
+
+    @Override
+    public final long[] getBlockSizeCounts() {
+        return sums(blocksizes);
+    }
+
+    @Override
+    public final long getRejectedMatches() {
+        return rejected.sum();
+    }
+
+    @Override
+    public final long getScoredMatches() {
+        return scored.sum();
+    }
+
+    @Override
+    public final long getMatchTime() {
+        return match_time.sum();
+    }
+
+    @Override
+    public final long[] getMatchLatencyHistogram() {
+        return sums(latencies);
+    }
+
+    @Override
+    public final void reset() {
+        hashes.reset();
+        bytes.reset();
+        hash_time.reset();
+        halvings.reset();
+        rejected.reset();
+        scored.reset();
+        match_time.reset();
+        for (LongAdder counter : blocksizes) {
+            counter.reset();
+        }
+        for (LongAdder counter : latencies) {
+            counter.reset();
+        }
+    }
+
+    private static long[] sums(final LongAdder[] counters) {
+        long[] sums = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            sums[i] = counters[i].sum();
+        }
+        return sums;
+    }
+
+    @Override
+    public final String toString() {
+        return "hashes: " + getHashCount()
+                + ", bytes: " + getBytesHashed()
+                + ", halvings: " + getHalvings()
+                + ", rejected matches: " + getRejectedMatches()
+                + ", scored matches: " + getScoredMatches();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+/**
+ * Management interface of SpamSumMetrics, exposed through JMX.
+ *
+ * Counters only include the work notified to the listener (see
+ * SpamSumListener for the operations that are not notified).
+ *
+ * @author Thibault Debatty
+ */
+public interface SpamSumMetricsMBean {
+
+    /**
+     *
+     * @return number of signatures computed
+     */
+    long getHashCount();
+
+    /**
+     *
+     * @return number of bytes hashed
+     */
+    long getBytesHashed();
+
+    /**
+     *
+     * @return total time spent hashing, in nanoseconds
+     */
+    long getHashTime();
+
+    /**
+     *
+     * @return average throughput of hashing, in MB/s
+     */
+    double getThroughput();
+
+    /**
+     *
+     * @return number of times the original algorithm would have halved the
+     * block size and hashed the input again
+     */
+    long getHalvings();
+
+    /**
+     *
+     * @return number of signatures with a block size of 3 * 2^i (element i),
+     * and with another block size (last element)
+     */
+    long[] getBlockSizeCounts();
+
+    /**
+     *
+     * @return number of comparisons rejected because the block sizes are not
+     * compatible
+     */
+    long getRejectedMatches();
+
+    /**
+     *
+     * @return number of comparisons for which the score was computed
+     */
+    long getScoredMatches();
+
+    /**
+     *
+     * @return total time spent computing scores, in nanoseconds
+     */
+    long getMatchTime();
+
+    /**
+     *
+     * @return number of scores computed in [2^i, 2^(i+1)[ nanoseconds
+     * (element i)
+     */
+    long[] getMatchLatencyHistogram();
+
+    /**
+     * Reset all counters to 0.
+     */
+    void reset();
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class BatchHasherTest {
+
+    @Test
+    public void testHash() {
+        SpamSum spamsum = new SpamSum();
+        Random rand = new Random(123);
+
+        byte[][] documents = new byte[200][];
+        for (int i = 0; i < documents.length; i++) {
+            // mostly small documents, and a few larger than a stride
+            int length = i % 10 == 0
+                    ? rand.nextInt(100000) : rand.nextInt(4096);
+            documents[i] = new byte[length];
+            for (int j = 0; j < length; j++) {
+                if (i % 3 == 0) {
+                    // low entropy input
+                    documents[i][j] = (byte) ('a' + rand.nextInt(3));
+                } else {
+                    documents[i][j] = (byte) rand.nextInt();
+                }
+            }
+        }
+        documents[1] = new byte[0];
+
+        Signature[] signatures = new BatchHasher().hash(documents);
+        assertEquals(documents.length, signatures.length);
+        for (int i = 0; i < documents.length; i++) {
+            assertEquals(spamsum.hash(documents[i]), signatures[i]);
+        }
+    }
+
+    @Test
+    public void testHashStrings() {
+        SpamSum spamsum = new SpamSum();
+        Random rand = new Random(123);
+
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = rand.nextInt(2000);
+            for (int j = 0; j < length; j++) {
+                // ASCII, accents and CJK characters
+                switch (rand.nextInt(3)) {
+                    case 0:
+                        builder.append((char) ('a' + rand.nextInt(26)));
+                        break;
+                    case 1:
+                        builder.append((char) (0xE0 + rand.nextInt(16)));
+                        break;
+                    default:
+                        builder.append((char) (0x4E00 + rand.nextInt(100)));
+                }
+            }
+            strings.add(builder.toString());
+        }
+
+        List<Signature> signatures = new BatchHasher().hash(strings);
+        for (int i = 0; i < strings.size(); i++) {
+            assertEquals(spamsum.hashString(strings.get(i)), signatures.get(i));
+        }
+    }
+}
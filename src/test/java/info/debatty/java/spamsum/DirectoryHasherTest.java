@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.java.spamsum;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class DirectoryHasherTest {
+
+    @Test
+    public void testHash() throws IOException, InterruptedException {
+        SpamSum spamsum = new SpamSum();
+        Random rand = new Random(123);
+
+        Path root = Files.createTempDirectory("spamsum");
+        Path sub = Files.createDirectory(root.resolve("sub"));
+        Map<Path, Signature> expected = new ConcurrentHashMap<Path, Signature>();
+        for (int i = 0; i < 20; i++) {
+            byte[] bytes = new byte[rand.nextInt(50000)];
+            rand.nextBytes(bytes);
+            Path file = (i % 2 == 0 ? root : sub).resolve("file" + i);
+            Files.write(file, bytes);
+            expected.put(file, spamsum.hash(bytes));
+        }
+
+        final Map<Path, Signature> results =
+                new ConcurrentHashMap<Path, Signature>();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            // small limits, so files wait for a slot
+            DirectoryHasher hasher = new DirectoryHasher(executor, 2, 5000, 4096);
+            hasher.hash(root, new DirectoryHasher.Callback() {
+                @Override
+                public void hashed(final Path file, final Signature signature) {
+                    assertTrue(results.put(file, signature) == null);
+                }
+
+                @Override
+                public void failed(final Path file, final IOException ex) {
+                    throw new AssertionError(ex);
+                }
+            });
+
+        } finally {
+            executor.shutdown();
+            for (Path file : expected.keySet()) {
+                Files.delete(file);
+            }
+            Files.delete(sub);
+            Files.delete(root);
+        }
+
+        assertEquals(expected, results);
+    }
+
+    /**
+     * A directory whose listing fails partway is reported, and the walk
+     * continues with its siblings.
+     */
+    @Test
+    public void testListingFailed() throws IOException {
+        final List<Path> failed = new ArrayList<Path>();
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            DirectoryHasher hasher = new DirectoryHasher(executor);
+            FileVisitor<Path> visitor = hasher.visitor(
+                    new Semaphore(1),
+                    new Semaphore(1),
+                    new DirectoryHasher.Callback() {
+                        @Override
+                        public void hashed(
+                                final Path file, final Signature signature) {
+                            throw new AssertionError(file);
+                        }
+
+                        @Override
+                        public void failed(
+                                final Path file, final IOException ex) {
+                            failed.add(file);
+                        }
+                    });
+
+            Path dir = Paths.get("root", "dir");
+            assertEquals(
+                    FileVisitResult.CONTINUE,
+                    visitor.postVisitDirectory(
+                            dir, new IOException("Listing failed")));
+            assertEquals(Collections.singletonList(dir), failed);
+
+            assertEquals(
+                    FileVisitResult.CONTINUE,
+                    visitor.postVisitDirectory(dir, null));
+            assertEquals(1, failed.size());
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.java.spamsum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class ESSumBatchTest {
+
+    @Test
+    public void testHash() {
+        List<String> strings = generateStrings(1000);
+
+        ESSumBatch batch = new ESSumBatch(8, 1000);
+        ESSumBatch.Arena arena = batch.hash(strings.subList(0, 10));
+        int[] hashes = arena.getHashes();
+
+        // the arena is reused for the next batch
+        arena = batch.hash(strings, arena);
+        assertEquals(strings.size(), arena.size());
+        assertTrue(arena.getHashes() != hashes);
+
+        ESSum essum = new ESSum(8, 1000);
+        for (int i = 0; i < strings.size(); i++) {
+            int[] expected = essum.HashString(strings.get(i));
+            for (int stage = 0; stage < 8; stage++) {
+                assertEquals(expected[stage], arena.get(i, stage));
+            }
+            assertEquals(essum.BlockSize(), arena.getBlockSize(i));
+        }
+
+        hashes = arena.getHashes();
+        arena = batch.hash(strings.subList(0, 10), arena);
+        assertEquals(10, arena.size());
+        assertTrue(arena.getHashes() == hashes);
+    }
+
+    @Test
+    public void testCandidates() {
+        List<String> strings = generateStrings(500);
+        ESSumBatch.Arena arena = new ESSumBatch(8, 1000).hash(strings);
+
+        ESSumBanding banding =
+                new ESSumBanding(4, strings.size(), new ForkJoinPool(2));
+        long[] candidates = banding.candidates(arena);
+
+        // same as comparing the bands of all pairs
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < arena.size(); i++) {
+            for (int j = i + 1; j < arena.size(); j++) {
+                if (arena.getBlockSize(i) != arena.getBlockSize(j)) {
+                    continue;
+                }
+                for (int band = 0; band < 4; band++) {
+                    // bands that were not reached are skipped
+                    if (arena.getReachedStages(i) <= 2 * band
+                            || arena.getReachedStages(j) <= 2 * band) {
+                        continue;
+                    }
+                    boolean same = true;
+                    for (int stage = 2 * band; stage < 2 * band + 2; stage++) {
+                        same &= arena.get(i, stage) == arena.get(j, stage);
+                    }
+                    if (same) {
+                        expected.add(((long) i << 32) | j);
+                        break;
+                    }
+                }
+            }
+        }
+
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            assertEquals(expected.get(i).longValue(), candidates[i]);
+            assertTrue(ESSumBanding.first(candidates[i])
+                    < ESSumBanding.second(candidates[i]));
+        }
+    }
+
+    @Test
+    public void testShortStrings() {
+        List<String> strings = Arrays.asList(
+                "Hello world!",
+                "Play to win",
+                "The quick brown fox",
+                "jumps over the lazy dog",
+                "Lorem ipsum dolor sit amet",
+                "1234567890");
+        ESSumBatch.Arena arena = new ESSumBatch(8, 1000).hash(strings);
+
+        // the last stages of short strings are 0
+        for (int i = 0; i < arena.size(); i++) {
+            assertEquals(0, arena.get(i, 7));
+        }
+
+        ESSumBanding banding = new ESSumBanding(4, 1000, new ForkJoinPool(2));
+        assertEquals(0, banding.candidates(arena).length);
+    }
+
+    /**
+     * With few buckets, 0 is a frequent value for the stages that were
+     * reached: identical strings must still be candidates.
+     */
+    @Test
+    public void testSmallBuckets() {
+        Random rand = new Random(123);
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            char[] chars = new char[3000];
+            for (int k = 0; k < chars.length; k++) {
+                chars[k] = (char) ('a' + rand.nextInt(26));
+            }
+            strings.add(new String(chars));
+            strings.add(new String(chars));
+        }
+
+        for (int buckets = 1; buckets <= 2; buckets++) {
+            ESSumBatch.Arena arena = new ESSumBatch(4, buckets).hash(strings);
+            long[] candidates = new ESSumBanding(4).candidates(arena);
+            for (int i = 0; i < strings.size(); i += 2) {
+                long pair = ((long) i << 32) | (i + 1);
+                assertTrue(Arrays.binarySearch(candidates, pair) >= 0);
+            }
+        }
+    }
+
+    /**
+     * Families of similar strings.
+     */
+    private static List<String> generateStrings(final int count) {
+        Random rand = new Random(123);
+        List<String> strings = new ArrayList<String>();
+        while (strings.size() < count) {
+            char[] chars = new char[100 + rand.nextInt(2000)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) ('a' + rand.nextInt(26));
+            }
+
+            for (int variant = 0; variant < 5; variant++) {
+                char[] copy = Arrays.copyOf(chars, chars.length);
+                for (int i = 0; i < variant * 3; i++) {
+                    copy[rand.nextInt(copy.length)] = ' ';
+                }
+                strings.add(new String(copy));
+            }
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class EditDistanceTest {
+
+    @Test
+    public void testDistance() {
+        assertEquals(0, distance("", ""));
+        assertEquals(3, distance("abc", ""));
+        assertEquals(3, distance("", "abc"));
+        assertEquals(0, distance("abc", "abc"));
+        assertEquals(3, distance("kitten", "sitting"));
+        assertEquals(2, distance("flaw", "lawn"));
+        assertEquals(1, distance(":9zMv", ":9vMv"));
+
+        // first string has 64 characters, the second is longer
+        String s1 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        assertEquals(0, distance(s1, s1));
+        assertEquals(10, distance(s1, s1 + "0123456789"));
+        assertEquals(64, distance(s1, s1.replaceAll(".", "?")));
+    }
+
+    @Test
+    public void testHasCommonSubstring() {
+        assertEquals(false, hasCommonSubstring("", ""));
+        assertEquals(false, hasCommonSubstring("abcdef", "abcdef"));
+        assertEquals(true, hasCommonSubstring("abcdefg", "abcdefg"));
+        assertEquals(true, hasCommonSubstring("xxabcdefgxx", "yyyabcdefg"));
+        assertEquals(false, hasCommonSubstring("xxabcdefgxx", "abcdeXfg"));
+        assertEquals(true, hasCommonSubstring("aaaaaaa", "baaaaaaaa"));
+    }
+
+    private static boolean hasCommonSubstring(
+            final String s1, final String s2) {
+        return EditDistance.hasCommonSubstring(
+                s1.toCharArray(), s1.length(), s2.toCharArray(), s2.length());
+    }
+
+    private static int distance(final String s1, final String s2) {
+        return EditDistance.distance(
+                s1.toCharArray(), s1.length(), s2.toCharArray(), s2.length());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.java.spamsum;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class HashListReaderTest {
+
+    @Test
+    public void testRead() throws IOException {
+        List<Signature> signatures = new ArrayList<Signature>();
+        List<String> filenames = new ArrayList<String>();
+
+        HashListReader reader = new HashListReader(new InputStreamReader(
+                Thread.currentThread()
+                        .getContextClassLoader()
+                        .getResourceAsStream("hashes.txt"), "UTF-8"));
+        try {
+            while (reader.next()) {
+                signatures.add(reader.getSignature());
+                filenames.add(reader.getFilename());
+            }
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(2, signatures.size());
+        assertEquals("loremipsum2.txt", filenames.get(0));
+        assertEquals("loremipsum.txt", filenames.get(1));
+        assertEquals(48, signatures.get(0).getBlockSize());
+
+        // ssdeep -bm hashes.txt loremipsum.txt
+        SignatureIndex index = new SignatureIndex();
+        assertEquals(2, index.addAll(signatures));
+        List<SignatureIndex.Result> results =
+                index.search(signatures.get(1), 1);
+        assertEquals(2, results.size());
+        assertEquals(signatures.get(0), results.get(1).getSignature());
+        assertEquals(85, results.get(1).getScore());
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        SpamSum spamsum = new SpamSum();
+        String[] filenames = {
+            "simple.txt",
+            "with,comma.txt",
+            "with \"quotes\".txt",
+            "C:\\Windows\\notepad.exe",
+            ""};
+
+        StringWriter out = new StringWriter();
+        HashListWriter writer = new HashListWriter(out);
+        for (String filename : filenames) {
+            writer.write(spamsum.hashString(filename + filename), filename);
+        }
+        writer.close();
+
+        // Windows line separators and empty lines are accepted too
+        String list = out.toString().replace("\n", "\r\n") + "\r\n";
+        HashListReader reader = new HashListReader(new StringReader(list));
+        for (String filename : filenames) {
+            assertTrue(reader.next());
+            assertEquals(filename, reader.getFilename());
+            assertEquals(
+                    spamsum.hashString(filename + filename),
+                    reader.getSignature());
+        }
+        assertTrue(!reader.next());
+        assertEquals(filenames.length + 2, reader.getLineNumber());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidHeader() throws IOException {
+        new HashListReader(new StringReader("3:abc:def,\"file\"\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidSignature() throws IOException {
+        HashListReader reader = new HashListReader(new StringReader(
+                HashListReader.HEADER + "\n3:ab!c:def,\"file\"\n"));
+        assertTrue(reader.next());
+        reader.getSignature();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class MainTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    public void testHash() throws IOException {
+        SpamSum spamsum = new SpamSum();
+        Random rand = new Random(123);
+
+        Path root = Files.createTempDirectory("spamsum");
+        Path sub = Files.createDirectory(root.resolve("sub"));
+        Map<String, Signature> expected = new HashMap<String, Signature>();
+        for (int i = 0; i < 10; i++) {
+            byte[] bytes = new byte[rand.nextInt(50000)];
+            rand.nextBytes(bytes);
+            Path file = (i % 2 == 0 ? root : sub).resolve("file" + i);
+            Files.write(file, bytes);
+            expected.put(file.toString(), spamsum.hash(bytes));
+        }
+
+        try {
+            assertEquals(0, run("-rl", root.toString()));
+            Map<String, Signature> results = new HashMap<String, Signature>();
+            HashListReader reader =
+                    new HashListReader(new StringReader(getOut()));
+            while (reader.next()) {
+                results.put(reader.getFilename(), reader.getSignature());
+            }
+            assertEquals(expected, results);
+
+            // directories are only hashed in recursive mode
+            assertEquals(1, run(root.toString()));
+            assertTrue(getErr().contains("Is a directory"));
+
+        } finally {
+            for (String file : expected.keySet()) {
+                Files.delete(Paths.get(file));
+            }
+            Files.delete(sub);
+            Files.delete(root);
+        }
+    }
+
+    @Test
+    public void testMatch() throws IOException, URISyntaxException {
+        String hashes = getResource("hashes.txt");
+        assertEquals(0, run("-b", "-m", hashes, getResource("loremipsum.txt")));
+
+        // loremipsum.txt matches both signatures of the list
+        String[] lines = getOut().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(
+                "loremipsum.txt matches " + hashes + ":loremipsum.txt (100)",
+                lines[0]);
+        assertTrue(lines[1].startsWith(
+                "loremipsum.txt matches " + hashes + ":loremipsum2.txt ("));
+
+        // above the threshold, only the identical file matches
+        assertEquals(0, run("-b", "-t99", "-m", hashes,
+                getResource("loremipsum.txt")));
+        assertEquals(1, getOut().split("\n").length);
+    }
+
+    @Test
+    public void testCompare() throws IOException, URISyntaxException {
+        String hashes = getResource("hashes.txt");
+        Signature sig1 = new SpamSum().hashFile(Paths.get(hashes)
+                .resolveSibling("loremipsum2.txt"));
+        Signature sig2 = new SpamSum().hashFile(Paths.get(hashes)
+                .resolveSibling("loremipsum.txt"));
+        int score = new SpamSum().match(sig1, sig2);
+
+        assertEquals(0, run("-x", hashes));
+        assertEquals(
+                hashes + ":loremipsum2.txt matches " + hashes
+                + ":loremipsum.txt (" + score + ")\n",
+                getOut());
+
+        assertEquals(0, run("-d", "-b", getResource("loremipsum.txt"),
+                getResource("loremipsum2.txt")));
+        assertEquals(
+                "loremipsum.txt matches loremipsum2.txt (" + score + ")\n",
+                getOut());
+    }
+
+    @Test
+    public void testInvalid() throws UnsupportedEncodingException {
+        assertEquals(1, run("-q", "file"));
+        assertTrue(getErr().contains("Invalid option -q"));
+        assertEquals(1, run("-d", "-x", "file"));
+        assertEquals(1, run("-t", "101", "file"));
+        assertEquals(1, run("-r"));
+        assertEquals(1, run("does-not-exist"));
+        assertTrue(getErr().contains("No such file or directory"));
+        assertEquals(0, run("-h"));
+        assertTrue(getOut().startsWith("Usage"));
+    }
+
+    private int run(final String... args) {
+        out.reset();
+        err.reset();
+        return Main.run(args, new PrintStream(out), new PrintStream(err));
+    }
+
+    private String getOut() throws UnsupportedEncodingException {
+        return out.toString("UTF-8");
+    }
+
+    private String getErr() throws UnsupportedEncodingException {
+        return err.toString("UTF-8");
+    }
+
+    private static String getResource(final String file)
+            throws URISyntaxException {
+        return Paths.get(Thread.currentThread()
+                .getContextClassLoader()
+                .getResource(file)
+                .toURI()).toString();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.java.spamsum;
+
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class MatchCacheTest {
+
+    @Test
+    public void testMatch() {
+        SpamSum spamsum = new SpamSum();
+        List<Signature> signatures = SignatureIndexTest.generateSignatures(50);
+        MatchCache cache = new MatchCache(10000);
+
+        for (int round = 0; round < 2; round++) {
+            for (Signature sig1 : signatures) {
+                for (Signature sig2 : signatures) {
+                    assertEquals(
+                            spamsum.match(sig1, sig2),
+                            cache.match(sig1, sig2));
+                }
+            }
+        }
+
+        // match(a, b) and match(b, a) share the same entry, hence only the
+        // first round has misses
+        assertTrue(cache.getMissCount() > 0);
+        assertTrue(cache.getMissCount() <= 50 * 51 / 2);
+        assertEquals(cache.getMissCount(), cache.size());
+        assertTrue(cache.getHitRate() > 0.7);
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEviction() {
+        List<Signature> signatures = SignatureIndexTest.generateSignatures(100);
+        MatchCache cache = new MatchCache(32);
+        for (Signature sig1 : signatures) {
+            for (Signature sig2 : signatures) {
+                cache.match(sig1, sig2);
+            }
+        }
+
+        assertTrue(cache.size() <= 32);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(
+                cache.getMissCount() - cache.getEvictionCount(),
+                cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+
+        // the capacity is not a multiple of the number of stripes
+        cache = new MatchCache(100);
+        for (Signature sig1 : signatures) {
+            for (Signature sig2 : signatures) {
+                cache.match(sig1, sig2);
+            }
+        }
+        assertTrue(cache.size() <= 100);
+        assertTrue(cache.size() > 0);
+    }
+}
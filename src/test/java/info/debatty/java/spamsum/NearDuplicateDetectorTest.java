@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.java.spamsum;
+
+import java.util.Random;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class NearDuplicateDetectorTest {
+
+    @Test
+    public void testCheck() {
+        for (boolean off_heap : new boolean[] {false, true}) {
+            NearDuplicateDetector detector =
+                    new NearDuplicateDetector(16, 100000, 8, 1000, 0, off_heap);
+            Random rand = new Random(123);
+
+            int detected = 0;
+            for (int i = 0; i < 200; i++) {
+                char[] message = randomMessage(rand, 2000);
+                assertTrue(!detector.check(new String(message)));
+
+                // a modified copy
+                message[rand.nextInt(message.length)] = '!';
+                if (detector.check(new String(message))) {
+                    detected++;
+                }
+            }
+            assertTrue(detected > 190);
+        }
+    }
+
+    @Test
+    public void testWindow() {
+        NearDuplicateDetector detector =
+                new NearDuplicateDetector(16, 100000, 8, 100);
+        Random rand = new Random(123);
+        String first = new String(randomMessage(rand, 2000));
+        detector.check(first);
+
+        for (int i = 0; i < 10000; i++) {
+            detector.check(new String(randomMessage(rand, 500)));
+        }
+        assertTrue(!detector.check(first));
+
+        // memory is bounded
+        assertTrue(detector.size() < 100 * 8 * 3);
+    }
+
+    @Test
+    public void testMaxAge() {
+        NearDuplicateDetector detector =
+                new NearDuplicateDetector(16, 100000, 8, 100, 1000, false);
+        byte[] message = new String(randomMessage(new Random(1), 2000))
+                .getBytes();
+
+        assertTrue(!detector.check(message, 0));
+        assertTrue(detector.check(message, 500));
+        assertTrue(detector.check(message, 1400));
+        assertTrue(!detector.check(message, 2401));
+    }
+
+    /**
+     * With few buckets, 0 is a frequent value for the stages that were
+     * reached: exact repeats must still be detected.
+     */
+    @Test
+    public void testSmallBuckets() {
+        NearDuplicateDetector[] detectors = new NearDuplicateDetector[] {
+            new NearDuplicateDetector(4, 2, 4, 1000),
+            new NearDuplicateDetector(8, 1, 2, 1000)
+        };
+
+        for (NearDuplicateDetector detector : detectors) {
+            Random rand = new Random(123);
+            for (int i = 0; i < 200; i++) {
+                String message = new String(randomMessage(rand, 3000));
+                detector.check(message);
+                assertTrue(detector.check(message));
+            }
+        }
+    }
+
+    private static char[] randomMessage(final Random rand, final int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + rand.nextInt(26));
+        }
+        return chars;
+    }
+}
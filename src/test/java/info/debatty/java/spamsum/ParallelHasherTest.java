@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.java.spamsum;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class ParallelHasherTest {
+
+    @Test
+    public void testHash() {
+        SpamSum spamsum = new SpamSum();
+        Random rand = new Random(123);
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        // tiny chunks and buffers, so reset points and pieces are split
+        // between chunks and buffers
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = new byte[rand.nextInt(100000)];
+            for (int j = 0; j < bytes.length; j++) {
+                if (i % 2 == 0) {
+                    bytes[j] = (byte) rand.nextInt();
+                } else {
+                    // low entropy input
+                    bytes[j] = (byte) ('a' + rand.nextInt(3));
+                }
+            }
+
+            int window_bits = 8 + rand.nextInt(8);
+            int window = 1 << window_bits;
+            ByteBuffer[] windows =
+                    new ByteBuffer[Math.max(1, (bytes.length - 1) / window + 1)];
+            for (int j = 0; j < windows.length; j++) {
+                int offset = j * window;
+                windows[j] = ByteBuffer.wrap(
+                        bytes, offset, Math.min(window, bytes.length - offset))
+                        .slice();
+            }
+
+            ParallelHasher hasher =
+                    new ParallelHasher(pool, 1 + rand.nextInt(5000));
+            assertEquals(
+                    spamsum.hash(bytes),
+                    hasher.hash(windows, window_bits, 0));
+
+            SpamSumHasher sequential = new SpamSumHasher(12);
+            sequential.update(bytes);
+            assertEquals(
+                    sequential.digest(),
+                    hasher.hash(windows, window_bits, 12));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testHashFile() throws IOException, URISyntaxException {
+        Path path = Paths.get(Thread.currentThread()
+                .getContextClassLoader()
+                .getResource("loremipsum.txt")
+                .toURI());
+
+        ParallelHasher hasher = new ParallelHasher(new ForkJoinPool(2), 100);
+        assertEquals(new SpamSum().hashFile(path), hasher.hashFile(path));
+    }
+}
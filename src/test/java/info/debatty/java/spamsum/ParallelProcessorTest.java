@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class ParallelProcessorTest {
+
+    private static final Function<Integer, Integer> SQUARE =
+            new Function<Integer, Integer>() {
+                @Override
+                public Integer apply(final Integer value) {
+                    return value * value;
+                }
+            };
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        RangePublisher publisher = new RangePublisher(1000000);
+        ParallelProcessor<Integer, Integer> processor =
+                new ParallelProcessor<Integer, Integer>(
+                        SQUARE, executor, 4, 16, true);
+        Collector<Integer> collector = new Collector<Integer>(5);
+
+        publisher.subscribe(processor);
+        processor.subscribe(collector);
+        Thread.sleep(500);
+
+        // only 5 results were requested: the buffer of the processor is
+        // full, and no more items are requested from the publisher
+        assertEquals(5, collector.results.size());
+        assertEquals(16, collector.results.get(4).intValue());
+        assertTrue(publisher.requested.get() <= 16 + 5);
+
+        // unbounded demand: all items are delivered, in order
+        collector.subscription.request(Long.MAX_VALUE);
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertEquals(1000000, collector.results.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * i, collector.results.get(i).intValue());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testError() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        RangePublisher publisher = new RangePublisher(1000);
+        ParallelProcessor<Integer, Integer> processor =
+                new ParallelProcessor<Integer, Integer>(
+                        new Function<Integer, Integer>() {
+                            @Override
+                            public Integer apply(final Integer value) {
+                                if (value == 100) {
+                                    throw new IllegalStateException("100");
+                                }
+                                return value;
+                            }
+                        },
+                        executor, 4, 16, false);
+        Collector<Integer> collector =
+                new Collector<Integer>(Long.MAX_VALUE);
+
+        publisher.subscribe(processor);
+        processor.subscribe(collector);
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertTrue(collector.error instanceof IllegalStateException);
+        assertTrue(collector.results.size() < 1000);
+        assertTrue(publisher.cancelled);
+
+        // a processor accepts a single subscriber
+        Collector<Integer> second = new Collector<Integer>(1);
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejected() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        executor.shutdown();
+        RangePublisher publisher = new RangePublisher(1000);
+        ParallelProcessor<Integer, Integer> processor =
+                new ParallelProcessor<Integer, Integer>(
+                        SQUARE, executor, 4, 16, true);
+        Collector<Integer> collector =
+                new Collector<Integer>(Long.MAX_VALUE);
+
+        publisher.subscribe(processor);
+        processor.subscribe(collector);
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertTrue(collector.error instanceof RejectedExecutionException);
+        assertTrue(publisher.cancelled);
+    }
+
+    /**
+     * Publish the integers 0 .. count - 1, when they are requested.
+     */
+    static final class RangePublisher implements Flow.Publisher<Integer> {
+        private final int count;
+        private final AtomicLong requested = new AtomicLong();
+        private volatile boolean cancelled = false;
+
+        RangePublisher(final int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super Integer> s) {
+            s.onSubscribe(new Flow.Subscription() {
+                private final AtomicLong demand = new AtomicLong();
+                private int next = 0;
+
+                @Override
+                public void request(final long n) {
+                    requested.addAndGet(Math.min(n, count));
+                    if (demand.getAndAdd(n) != 0) {
+                        // another thread is emitting
+                        return;
+                    }
+
+                    long emitted = 0;
+                    long available = n;
+                    while (true) {
+                        while (emitted < available && next < count
+                                && !cancelled) {
+                            s.onNext(next++);
+                            emitted++;
+                        }
+                        if (next == count && !cancelled) {
+                            cancelled = true;
+                            s.onComplete();
+                            return;
+                        }
+                        available = demand.addAndGet(-emitted);
+                        emitted = 0;
+                        if (available == 0 || cancelled) {
+                            return;
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Collect the results, after requesting some of them.
+     */
+    static final class Collector<T> implements Flow.Subscriber<T> {
+        private final long initial_request;
+        private final List<T> results =
+                Collections.synchronizedList(new ArrayList<T>());
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        Collector(final long initial_request) {
+            this.initial_request = initial_request;
+        }
+
+        List<T> getResults() {
+            return results;
+        }
+
+        CountDownLatch getDone() {
+            return done;
+        }
+
+        Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initial_request);
+        }
+
+        @Override
+        public void onNext(final T item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
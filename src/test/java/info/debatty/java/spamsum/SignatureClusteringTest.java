@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.java.spamsum;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class SignatureClusteringTest {
+
+    @Test
+    public void testPairs() {
+        SpamSum spamsum = new SpamSum();
+        List<Signature> signatures = SignatureIndexTest.generateSignatures(300);
+
+        SignatureClustering clustering =
+                new SignatureClustering(new ForkJoinPool(4));
+        List<SignatureClustering.Pair> pairs = clustering.pairs(signatures, 1);
+
+        // pairs must be the same as comparing all signatures
+        int expected = 0;
+        for (int i = 0; i < signatures.size(); i++) {
+            for (int j = i + 1; j < signatures.size(); j++) {
+                if (spamsum.match(signatures.get(i), signatures.get(j)) > 0) {
+                    expected++;
+                }
+            }
+        }
+        assertEquals(expected, pairs.size());
+
+        int previous = 100;
+        for (SignatureClustering.Pair pair : pairs) {
+            assertTrue(pair.getFirstIndex() < pair.getSecondIndex());
+            assertEquals(
+                    spamsum.match(pair.getFirst(), pair.getSecond()),
+                    pair.getScore());
+            assertTrue(pair.getScore() <= previous);
+            previous = pair.getScore();
+        }
+    }
+
+    @Test
+    public void testClusters() {
+        List<Signature> signatures = SignatureIndexTest.generateSignatures(100);
+
+        SignatureClustering clustering = new SignatureClustering();
+        List<List<Signature>> clusters = clustering.clusters(signatures, 50);
+        assertTrue(!clusters.isEmpty());
+
+        // both signatures of a pair are in the same cluster
+        for (SignatureClustering.Pair pair : clustering.pairs(signatures, 50)) {
+            boolean found = false;
+            for (List<Signature> cluster : clusters) {
+                if (cluster.contains(pair.getFirst())) {
+                    assertTrue(cluster.contains(pair.getSecond()));
+                    found = true;
+                }
+            }
+            assertTrue(found);
+        }
+
+        for (List<Signature> cluster : clusters) {
+            assertTrue(cluster.size() >= 2);
+        }
+    }
+}
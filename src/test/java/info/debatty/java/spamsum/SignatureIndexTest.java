@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class SignatureIndexTest {
+
+    @Test
+    public void testSearch() {
+        SpamSum spamsum = new SpamSum();
+        List<Signature> signatures = generateSignatures(300);
+
+        SignatureIndex index = new SignatureIndex();
+        for (Signature signature : signatures) {
+            index.add(signature);
+        }
+        assertEquals(signatures.size(), index.size());
+
+        // results must be the same as a linear scan
+        for (int i = 0; i < signatures.size(); i += 7) {
+            Signature query = signatures.get(i);
+            Map<Signature, Integer> expected = new HashMap<Signature, Integer>();
+            for (Signature signature : signatures) {
+                int score = spamsum.match(query, signature);
+                if (score >= 20) {
+                    expected.put(signature, score);
+                }
+            }
+
+            List<SignatureIndex.Result> results = index.search(query, 20);
+            assertEquals(expected.size(), results.size());
+            int previous = 100;
+            for (SignatureIndex.Result result : results) {
+                assertEquals(
+                        expected.get(result.getSignature()).intValue(),
+                        result.getScore());
+                assertTrue(result.getScore() <= previous);
+                previous = result.getScore();
+            }
+        }
+    }
+
+    @Test
+    public void testAddRemove() {
+        List<Signature> signatures = generateSignatures(20);
+        Signature query = signatures.get(0);
+
+        SignatureIndex index = new SignatureIndex();
+        assertTrue(index.add(query));
+        assertTrue(!index.add(query));
+        assertEquals(1, index.search(query, 100).size());
+
+        assertTrue(index.remove(query));
+        assertTrue(!index.remove(query));
+        assertEquals(0, index.size());
+        assertEquals(0, index.search(query, 1).size());
+
+        for (Signature signature : signatures) {
+            index.add(signature);
+        }
+        assertTrue(index.contains(query));
+        assertEquals(query, index.search(query, 100).get(0).getSignature());
+    }
+
+    /**
+     * Families of similar signatures, with different block sizes.
+     */
+    static List<Signature> generateSignatures(final int count) {
+        SpamSum spamsum = new SpamSum();
+        Random rand = new Random(123);
+        List<Signature> signatures = new ArrayList<Signature>();
+
+        while (signatures.size() < count) {
+            byte[] bytes = new byte[200 + rand.nextInt(20000)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) ('a' + rand.nextInt(26));
+            }
+
+            for (int variant = 0; variant < 5; variant++) {
+                byte[] copy = bytes.clone();
+                for (int i = 0; i < variant * 5; i++) {
+                    copy[rand.nextInt(copy.length)] = ' ';
+                }
+                signatures.add(spamsum.hash(copy));
+            }
+        }
+        return signatures;
+    }
+}
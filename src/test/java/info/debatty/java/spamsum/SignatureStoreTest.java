@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class SignatureStoreTest {
+
+    @Test
+    public void testSearch() throws IOException {
+        SpamSum spamsum = new SpamSum();
+        List<Signature> signatures = SignatureIndexTest.generateSignatures(300);
+
+        Path path = Files.createTempFile("spamsum", ".store");
+        try {
+            try (SignatureStore.Writer writer =
+                    new SignatureStore.Writer(path)) {
+                for (Signature signature : signatures) {
+                    writer.add(signature);
+                }
+                writer.commit();
+            }
+
+            SignatureStore store = SignatureStore.open(path);
+            assertEquals(signatures.size(), store.size());
+
+            // results must be the same as a linear scan
+            for (int i = 0; i < signatures.size(); i += 7) {
+                Signature query = signatures.get(i);
+                int expected = 0;
+                for (Signature signature : signatures) {
+                    int score = spamsum.match(query, signature);
+                    if (score >= 20) {
+                        expected++;
+                    }
+                }
+
+                List<SignatureStore.Result> results = store.search(query, 20);
+                assertEquals(expected, results.size());
+                int previous = 100;
+                for (SignatureStore.Result result : results) {
+                    Signature signature =
+                            signatures.get((int) result.getId());
+                    assertEquals(signature, result.getSignature());
+                    assertEquals(
+                            spamsum.match(query, signature),
+                            result.getScore());
+                    assertTrue(result.getScore() <= previous);
+                    previous = result.getScore();
+                }
+            }
+
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testReplaceAndAbandon() throws IOException {
+        List<Signature> signatures = SignatureIndexTest.generateSignatures(50);
+        Path directory = Files.createTempDirectory("spamsum");
+        Path path = directory.resolve("signatures.store");
+        try {
+            try (SignatureStore.Writer writer =
+                    new SignatureStore.Writer(path)) {
+                for (Signature signature : signatures.subList(0, 20)) {
+                    writer.add(signature);
+                }
+                writer.commit();
+            }
+            SignatureStore store = SignatureStore.open(path);
+            assertEquals(20, store.size());
+
+            // an exception before commit: the store is not replaced
+            try (SignatureStore.Writer writer =
+                    new SignatureStore.Writer(path)) {
+                writer.add(signatures.get(0));
+                throw new IllegalStateException("abandoned");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+            assertEquals(20, SignatureStore.open(path).size());
+
+            // the store is replaced, while the previous one is mapped
+            try (SignatureStore.Writer writer =
+                    new SignatureStore.Writer(path)) {
+                for (Signature signature : signatures) {
+                    writer.add(signature);
+                }
+                writer.commit();
+            }
+            assertEquals(50, SignatureStore.open(path).size());
+            assertEquals(20, store.size());
+            assertEquals(
+                    signatures.get(0),
+                    store.search(signatures.get(0), 100).get(0)
+                            .getSignature());
+
+            // no temporary file is left
+            int files = 0;
+            try (DirectoryStream<Path> stream =
+                    Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    files++;
+                }
+            }
+            assertEquals(1, files);
+
+        } finally {
+            try (DirectoryStream<Path> stream =
+                    Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Signatures with sequences of identical characters: after the
+     * elimination of sequences, the blocks of PreparedSignature keep the
+     * tail of the original signature.
+     */
+    @Test
+    public void testSequences() throws IOException {
+        SpamSum spamsum = new SpamSum();
+        Random rand = new Random(123);
+        List<Signature> signatures = new ArrayList<Signature>();
+
+        String left = repeat('A', 64);
+        String right = "0123456789abcdefghijklmnopqrstuv";
+        signatures.add(Signature.parse("3:" + left + ":" + right));
+        signatures.add(Signature.parse("3:" + right + ":" + repeat('B', 64)));
+        signatures.add(Signature.parse("3:" + right + ":" + right));
+        signatures.add(Signature.parse(
+                "24:R/" + repeat('u', 40) + "abcdefgh:R/" + repeat('u', 20)));
+
+        // files with long runs of identical bytes
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = new byte[1000 + rand.nextInt(10000)];
+            int position = 0;
+            while (position < bytes.length) {
+                int run = rand.nextInt(500);
+                byte value = (byte) rand.nextInt(4);
+                for (int k = 0; k < run && position < bytes.length; k++) {
+                    bytes[position++] = value;
+                }
+            }
+            signatures.add(spamsum.hash(bytes));
+        }
+
+        Path path = Files.createTempFile("spamsum", ".store");
+        try {
+            try (SignatureStore.Writer writer =
+                    new SignatureStore.Writer(path)) {
+                for (Signature signature : signatures) {
+                    writer.add(signature);
+                }
+                writer.commit();
+            }
+            SignatureStore store = SignatureStore.open(path);
+
+            for (Signature query : signatures) {
+                Map<Long, Integer> expected = new HashMap<Long, Integer>();
+                for (int i = 0; i < signatures.size(); i++) {
+                    int score = spamsum.match(query, signatures.get(i));
+                    if (score > 0) {
+                        expected.put((long) i, score);
+                    }
+                }
+
+                Map<Long, Integer> results = new HashMap<Long, Integer>();
+                for (SignatureStore.Result result : store.search(query, 1)) {
+                    assertEquals(
+                            signatures.get((int) result.getId()),
+                            result.getSignature());
+                    results.put(result.getId(), result.getScore());
+                }
+                assertEquals(expected, results);
+            }
+
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static String repeat(final char c, final int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void testEmptyAndInvalid() throws IOException {
+        Path path = Files.createTempFile("spamsum", ".store");
+        try {
+            new SignatureStore.Writer(path).commit();
+            SignatureStore store = SignatureStore.open(path);
+            assertEquals(0, store.size());
+            assertEquals(0, store.search(
+                    new SpamSum().hashString("Hello world!"), 0).size());
+
+            Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+            try {
+                SignatureStore.open(path);
+                fail("Invalid store should throw an exception");
+            } catch (IOException ex) {
+                // expected
+            }
+
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class SignatureTest {
+
+    private static final String[] SIGNATURES = {
+        "3:Y0ujLEEz6KxMENJv:Y0u3tz68/v",
+        "3:hMCEqNE0M+YFFWV5wdgHMyA8FNzs1b:hujkYFFWV51HM8Lzs1b",
+        "48:9zdDCjd6ALqt7+svFIHO4VHCJ4foXT5Luz5b4XDFN40shD7iqRJCLoz6a8s+U7fe:9zMvqt7+sUO4NCKAXT5LuzSXDFOl7FRw",
+        "3::",
+        "196608:/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+/+:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+    };
+
+    @Test
+    public void testParse() {
+        for (String string : SIGNATURES) {
+            Signature signature = Signature.parse(string);
+            assertEquals(string, signature.toString());
+        }
+
+        Signature signature = Signature.parse(SIGNATURES[1]);
+        assertEquals(3, signature.getBlockSize());
+        assertEquals("hMCEqNE0M+YFFWV5wdgHMyA8FNzs1b", signature.getLeft());
+        assertEquals("hujkYFFWV51HM8Lzs1b", signature.getRight());
+        assertEquals(
+                new SpamSum().hashString(
+                        "This is a string that might be a spam... Depends on "
+                        + "the hash, if it looks like a known hash...\n"),
+                signature);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidCharacter() {
+        Signature.parse("3:Y0ujLEEz6KxMENJv:Y0u3tz6-/v");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMissingPart() {
+        Signature.parse("3:Y0ujLEEz6KxMENJv");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidBlockSize() {
+        Signature.parse("x:Y0ujLEEz6KxMENJv:Y0u3tz68/v");
+    }
+
+    @Test
+    public void testBinaryFormat() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int size = 0;
+        for (String string : SIGNATURES) {
+            Signature signature = Signature.parse(string);
+            signature.writeTo(out);
+            size += signature.getSerializedSize();
+        }
+        out.close();
+        assertEquals(size, bytes.size());
+
+        // 4 + 1 + 1 + (64 + 32) * 6 / 8
+        assertEquals(78, Signature.parse(SIGNATURES[2]).getSerializedSize());
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        for (String string : SIGNATURES) {
+            assertEquals(string, Signature.readFrom(in).toString());
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (String string : SIGNATURES) {
+            Signature.parse(string).writeTo(buffer);
+        }
+        assertEquals(0, buffer.remaining());
+        assertEquals(ByteBuffer.wrap(bytes.toByteArray()), buffer.flip());
+
+        for (String string : SIGNATURES) {
+            assertEquals(string, Signature.readFrom(buffer).toString());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class SpamSumFlowTest {
+
+    @Test
+    public void testHashAndMatch() throws InterruptedException {
+        SpamSum spamsum = new SpamSum();
+        List<byte[]> documents = generateDocuments(500);
+
+        // the index contains the signatures of half of the documents
+        SignatureIndex index = new SignatureIndex();
+        for (int i = 0; i < documents.size(); i += 2) {
+            index.add(spamsum.hash(documents.get(i)));
+        }
+
+        for (boolean ordered : new boolean[] {true, false}) {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            SubmissionPublisher<SpamSumFlow.Document<Integer>> publisher =
+                    new SubmissionPublisher<SpamSumFlow.Document<Integer>>(
+                            executor, 8);
+            ParallelProcessor<SpamSumFlow.Document<Integer>,
+                    SpamSumFlow.Hashed<Integer>> hasher =
+                    SpamSumFlow.hasher(executor, 4, 8, ordered);
+            ParallelProcessor<SpamSumFlow.Hashed<Integer>,
+                    SpamSumFlow.Matched<Integer>> matcher =
+                    SpamSumFlow.matcher(index, 30, executor, 2, 8, ordered);
+            ParallelProcessorTest.Collector<SpamSumFlow.Matched<Integer>>
+                    collector = new ParallelProcessorTest.Collector<
+                            SpamSumFlow.Matched<Integer>>(Long.MAX_VALUE);
+
+            publisher.subscribe(hasher);
+            hasher.subscribe(matcher);
+            matcher.subscribe(collector);
+
+            // submit() blocks when the buffers are full
+            for (int i = 0; i < documents.size(); i++) {
+                publisher.submit(new SpamSumFlow.Document<Integer>(
+                        i, documents.get(i)));
+            }
+            publisher.close();
+            assertTrue(collector.getDone().await(30, TimeUnit.SECONDS));
+            assertNull(collector.getError());
+
+            List<SpamSumFlow.Matched<Integer>> results =
+                    collector.getResults();
+            assertEquals(documents.size(), results.size());
+            Map<Integer, SpamSumFlow.Matched<Integer>> by_id =
+                    new HashMap<Integer, SpamSumFlow.Matched<Integer>>();
+            for (int i = 0; i < results.size(); i++) {
+                SpamSumFlow.Matched<Integer> result = results.get(i);
+                if (ordered) {
+                    assertEquals(i, result.getId().intValue());
+                }
+                by_id.put(result.getId(), result);
+            }
+
+            for (int i = 0; i < documents.size(); i++) {
+                Signature expected = spamsum.hash(documents.get(i));
+                SpamSumFlow.Matched<Integer> result = by_id.get(i);
+                assertEquals(expected, result.getSignature());
+                assertEquals(
+                        index.search(expected, 30).size(),
+                        result.getMatches().size());
+            }
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Families of similar documents.
+     */
+    private static List<byte[]> generateDocuments(final int count) {
+        Random rand = new Random(123);
+        List<byte[]> documents = new ArrayList<byte[]>();
+        while (documents.size() < count) {
+            byte[] bytes = new byte[200 + rand.nextInt(5000)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) ('a' + rand.nextInt(26));
+            }
+            for (int variant = 0; variant < 5; variant++) {
+                byte[] copy = bytes.clone();
+                for (int i = 0; i < variant * 5; i++) {
+                    copy[rand.nextInt(copy.length)] = ' ';
+                }
+                documents.add(copy);
+            }
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.java.spamsum;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class SpamSumMetricsTest {
+
+    @Test
+    public void testMetrics() throws Exception {
+        SpamSum spamsum = new SpamSum();
+        SpamSumMetrics metrics = new SpamSumMetrics();
+        SpamSum.setListener(metrics);
+
+        try {
+            // no reset point: the original algorithm would divide the block
+            // size 10 times, from 3072 to 3
+            byte[] bytes = new byte[100000];
+            Signature sig1 = spamsum.hash(bytes);
+            Signature sig2 = spamsum.hashString("Hello world!");
+            Signature sig3 = spamsum.hash("Hello world!", 10);
+
+            assertEquals(3, metrics.getHashCount());
+            assertEquals(bytes.length + 24, metrics.getBytesHashed());
+            assertEquals(10, metrics.getHalvings());
+            assertTrue(metrics.getThroughput() > 0);
+
+            long[] blocksizes = metrics.getBlockSizeCounts();
+            assertEquals(2, blocksizes[0]);
+            assertEquals(1, blocksizes[blocksizes.length - 1]);
+
+            spamsum.match(sig1, sig2);
+            spamsum.match(sig2, sig3);
+            spamsum.match(sig1.toString(), sig3.toString());
+            assertEquals(1, metrics.getScoredMatches());
+            assertEquals(2, metrics.getRejectedMatches());
+
+            long[] histogram = metrics.getMatchLatencyHistogram();
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+            assertEquals(metrics.getScoredMatches(), total);
+
+            // exposed through JMX
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = metrics.register();
+            try {
+                assertEquals(3L, server.getAttribute(name, "HashCount"));
+                server.invoke(name, "reset", null, null);
+                assertEquals(0L, server.getAttribute(name, "HashCount"));
+            } finally {
+                metrics.unregister();
+            }
+
+        } finally {
+            SpamSum.setListener(null);
+        }
+    }
+
+    @Test
+    public void testEngines() throws Exception {
+        SpamSumMetrics metrics = new SpamSumMetrics();
+        SpamSum.setListener(metrics);
+
+        try {
+            byte[] bytes = new byte[100000];
+            Signature sig1 = new ParallelHasher(new ForkJoinPool(2), 100)
+                    .hash(bytes);
+            Signature sig2 = new BatchHasher().hash(bytes);
+            assertEquals(2, metrics.getHashCount());
+            assertEquals(2 * bytes.length, metrics.getBytesHashed());
+            assertEquals(2 * 10, metrics.getHalvings());
+
+            MatchCache cache = new MatchCache(10);
+            cache.match(sig1, sig2);
+            cache.match(sig1, new SpamSum().hash("Hello world!", 10));
+            assertEquals(1, metrics.getScoredMatches());
+            assertEquals(1, metrics.getRejectedMatches());
+
+        } finally {
+            SpamSum.setListener(null);
+        }
+    }
+}
@@ -28,6 +28,18 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
@@ -61,6 +73,82 @@ public class SpamSumTest {
                         spamsum.hashString(li2)));
     }
 
+    @Test
+    public void testMatchPrepared() throws IOException {
+        SpamSum spamsum = new SpamSum();
+        Signature sig1 = spamsum.hashString(readResourceFile("loremipsum.txt"));
+        Signature sig2 = spamsum.hashString(readResourceFile("loremipsum2.txt"));
+
+        PreparedSignature prepared1 = new PreparedSignature(sig1);
+        PreparedSignature prepared2 = new PreparedSignature(sig2);
+        assertEquals(85, spamsum.match(prepared1, prepared2));
+        assertEquals(85, spamsum.match(sig1.toString(), sig2.toString()));
+        assertEquals(100, spamsum.match(prepared1, prepared1));
+
+        // block sizes 48 and 96 can be compared, but not 48 and 192
+        Signature sig3 = Signature.parse("96:" + sig2.getRight() + ":AAAA");
+        assertEquals(77, spamsum.match(sig1, sig3));
+        assertEquals(77, spamsum.match(sig3, sig1));
+        assertEquals(77, spamsum.match(sig1.toString(), sig3.toString()));
+        Signature sig4 = Signature.parse("192:" + sig2.getRight() + ":AAAA");
+        assertEquals(0, spamsum.match(sig1, sig4));
+    }
+
+    @Test
+    public void testMatchWithoutCommonSubstring() {
+        // blocks are very close (edit distance = 1) but have no common
+        // substring of 7 characters
+        SpamSum spamsum = new SpamSum();
+        assertEquals(0, spamsum.match("3:ABCDEFAB:x", "3:ABCDEFXB:x"));
+        assertEquals(10, spamsum.match("3:ABCDEFGB:x", "3:ABCDEFGX:x"));
+    }
+
+    @Test
+    public void testTopK() {
+        SpamSum spamsum = new SpamSum();
+        List<Signature> signatures = SignatureIndexTest.generateSignatures(300);
+        List<PreparedSignature> prepared = new ArrayList<PreparedSignature>();
+        for (Signature signature : signatures) {
+            prepared.add(new PreparedSignature(signature));
+        }
+
+        for (int i = 0; i < signatures.size(); i += 13) {
+            Signature query = signatures.get(i);
+
+            // expected scores, by decreasing order
+            List<Integer> expected = new ArrayList<Integer>();
+            for (Signature candidate : signatures) {
+                int score = spamsum.match(query, candidate);
+                if (score > 0) {
+                    expected.add(score);
+                }
+            }
+            Collections.sort(expected, Collections.reverseOrder());
+
+            List<SignatureIndex.Result> top = spamsum.topK(query, signatures, 3);
+            assertEquals(Math.min(3, expected.size()), top.size());
+            for (int j = 0; j < top.size(); j++) {
+                assertEquals(expected.get(j).intValue(), top.get(j).getScore());
+                assertEquals(
+                        top.get(j).getScore(),
+                        spamsum.match(query, top.get(j).getSignature()));
+            }
+            assertEquals(top.size(), spamsum.topK(
+                    prepared.get(i), prepared, 3).size());
+
+            List<SignatureIndex.Result> results =
+                    spamsum.search(query, signatures, 30);
+            int count = 0;
+            for (int score : expected) {
+                if (score >= 30) {
+                    assertEquals(score, results.get(count).getScore());
+                    count++;
+                }
+            }
+            assertEquals(count, results.size());
+        }
+    }
+
     @Test
     public void testHashString() {
         System.out.println("hash");
@@ -81,6 +169,21 @@ public class SpamSumTest {
                 result.toString());
     }
 
+    @Test
+    public void testHashStringSmallerBlockSize() {
+        // the initial guess (192) produces a signature that is too short,
+        // hence the block size is divided by 2 four times
+        SpamSum spamsum = new SpamSum();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append(i % 10 == 0 ? "Line " + i + "\n" : "aaaaaaaaaa");
+        }
+
+        assertEquals(
+                "12:bpIsTStdyDjlPj/2fC7B2JLOn8NssOWvw0qTVzyjeHjvkI1pFN2RGtD92Xdx1o:bq9tmjFq692J5NgWvDa+jsYIOEP2txm",
+                spamsum.hashString(builder.toString()).toString());
+    }
+
     @Test
     public void testHashFile() throws IOException {
         // ssdeep -b *
@@ -101,6 +204,161 @@ public class SpamSumTest {
                 "48:9GCjd6ALqt7+svFIHO4CJ4foXT5aKDbyb4XDFN40shD7iqRJCLoz6a8s+U7f+4kh:9vvqt7+sUO4CKAXTgKDbRXDFOl7FRJAD",
                 spamsum.hashString(li2).toString());
 
+        assertEquals(
+                "48:9zdDCjd6ALqt7+svFIHO4VHCJ4foXT5Luz5b4XDFN40shD7iqRJCLoz6a8s+U7fe:9zMvqt7+sUO4NCKAXT5LuzSXDFOl7FRw",
+                spamsum.hashFile(getResourcePath("loremipsum.txt")).toString());
+        assertEquals(
+                "48:9GCjd6ALqt7+svFIHO4CJ4foXT5aKDbyb4XDFN40shD7iqRJCLoz6a8s+U7f+4kh:9vvqt7+sUO4CKAXTgKDbRXDFOl7FRJAD",
+                spamsum.hashFile(getResourcePath("loremipsum2.txt")).toString());
+    }
+
+    @Test
+    public void testHashStream() throws IOException {
+        SpamSum spamsum = new SpamSum();
+        InputStream stream = Thread.currentThread()
+                .getContextClassLoader()
+                .getResourceAsStream("loremipsum.txt");
+        assertEquals(
+                "48:9zdDCjd6ALqt7+svFIHO4VHCJ4foXT5Luz5b4XDFN40shD7iqRJCLoz6a8s+U7fe:9zMvqt7+sUO4NCKAXT5LuzSXDFOl7FRw",
+                spamsum.hash(stream).toString());
+        stream.close();
+    }
+
+    @Test
+    public void testHasher() throws IOException {
+        byte[] bytes = readResourceFile("loremipsum2.txt").getBytes("UTF-8");
+
+        // feed the hasher with pieces of different sizes
+        SpamSumHasher hasher = new SpamSumHasher();
+        int offset = 0;
+        int count = 1;
+        while (offset < bytes.length) {
+            count = Math.min(count, bytes.length - offset);
+            if (count % 2 == 0) {
+                hasher.update(bytes, offset, count);
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(count);
+                buffer.put(bytes, offset, count);
+                buffer.flip();
+                hasher.update(buffer);
+            }
+            offset += count;
+            count = count * 3;
+        }
+
+        assertEquals(bytes.length, hasher.getLength());
+        assertEquals(
+                "48:9GCjd6ALqt7+svFIHO4CJ4foXT5aKDbyb4XDFN40shD7iqRJCLoz6a8s+U7f+4kh:9vvqt7+sUO4CKAXTgKDbRXDFOl7FRJAD",
+                hasher.digest().toString());
+
+        hasher.reset();
+        hasher.update("Play to win  Download Casino King Spin now\n".getBytes("UTF-8"));
+        assertEquals(
+                "3:Y0ujLEEz6KxMENJv:Y0u3tz68/v",
+                hasher.digest().toString());
+    }
+
+    @Test
+    public void testHasherSnapshot() throws IOException {
+        Random rand = new Random(123);
+        byte[] bytes = new byte[200000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + rand.nextInt(4));
+        }
+
+        for (int blocksize : new int[] {0, 48}) {
+            SpamSumHasher expected = new SpamSumHasher(blocksize);
+            expected.update(bytes);
+
+            // hash a growing input, saving and restoring the state
+            SpamSumHasher hasher = new SpamSumHasher(blocksize);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int count = Math.min(
+                        rand.nextInt(20000), bytes.length - offset);
+                hasher.update(bytes, offset, count);
+                offset += count;
+
+                byte[] state = hasher.snapshot();
+                hasher = SpamSumHasher.restore(state);
+                assertEquals(offset, hasher.getLength());
+            }
+            assertEquals(expected.digest(), hasher.digest());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testHasherInvalidSnapshot() throws IOException {
+        byte[] state = new SpamSumHasher().snapshot();
+        state[0] = 42;
+        SpamSumHasher.restore(state);
+    }
+
+    @Test
+    public void testHashCharSequence() throws IOException {
+        SpamSum spamsum = new SpamSum();
+
+        // 1, 2, 3 and 4 bytes characters, and an unpaired surrogate
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            builder.append("a\u00e9\u20ac\ud83d\ude00 ").append(i);
+        }
+        builder.append("\ud83d.");
+
+        byte[] bytes = builder.toString().getBytes("UTF-8");
+        Signature expected = spamsum.hash(bytes);
+        assertEquals(expected, spamsum.hash(builder));
+        assertEquals(expected, spamsum.hashString(builder.toString()));
+
+        byte[] padded = new byte[bytes.length + 20];
+        System.arraycopy(bytes, 0, padded, 10, bytes.length);
+        assertEquals(expected, spamsum.hash(padded, 10, bytes.length));
+
+        ByteBuffer buffer = ByteBuffer.wrap(padded, 10, bytes.length);
+        assertEquals(expected, spamsum.hash(buffer.slice()));
+    }
+
+    @Test
+    public void testConcurrentHashing() throws Exception {
+        // a single instance is shared by all threads
+        final SpamSum spamsum = new SpamSum();
+        final String li1 = readResourceFile("loremipsum.txt");
+        final String li2 = readResourceFile("loremipsum2.txt");
+        final Signature expected1 = spamsum.hashString(li1);
+        final Signature expected2 = spamsum.hashString(li2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int j = 0; j < 200; j++) {
+                        if (!spamsum.hashString(li1).equals(expected1)
+                                || !spamsum.hashString(li2).equals(expected2)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+
+        for (Future<Boolean> result : results) {
+            assertEquals(true, result.get());
+        }
+        executor.shutdown();
+    }
+
+    private static Path getResourcePath(String file) throws IOException {
+        try {
+            return Paths.get(Thread.currentThread()
+                    .getContextClassLoader()
+                    .getResource(file)
+                    .toURI());
+        } catch (URISyntaxException ex) {
+            throw new IOException(ex);
+        }
     }
 
     private static String readResourceFile(String file) throws IOException {